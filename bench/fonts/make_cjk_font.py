@@ -0,0 +1,312 @@
+#!/usr/bin/env python3
+#
+# Copyright (c) 2008-2012, Matthias Mann
+#
+# All rights reserved.
+#
+# Redistribution and use in source and binary forms, with or without
+# modification, are permitted provided that the following conditions are met:
+#
+#     * Redistributions of source code must retain the above copyright notice,
+#       this list of conditions and the following disclaimer.
+#     * Redistributions in binary form must reproduce the above copyright
+#       notice, this list of conditions and the following disclaimer in the
+#       documentation and/or other materials provided with the distribution.
+#     * Neither the name of Matthias Mann nor the names of its contributors may
+#       be used to endorse or promote products derived from this software
+#       without specific prior written permission.
+#
+# THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+# "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+# LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+# A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+# CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+# EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+# PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+# PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+# LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+# NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+# SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+#
+"""Generates TWLBenchCJK.ttf - a synthetic font for the CJK benchmarks.
+
+The glyphs are not real characters. Every ideograph is built from two
+stroke based components like a real CJK font, so the glyph count, the
+cmap size and the rasterization work are comparable to a real CJK font.
+Covered: ASCII, CJK punctuation, kana, CJK unified ideographs and the
+halfwidth and fullwidth forms.
+
+Usage: python3 make_cjk_font.py [output.ttf]
+"""
+
+import struct
+import sys
+
+UNITS_PER_EM = 1000
+ASCENT = 880
+DESCENT = -120
+NUM_RADICALS = 64
+FAMILY = "TWL Bench CJK"
+
+
+class Rng:
+    """A small LCG so that the output does not depend on the Python version."""
+
+    def __init__(self, seed):
+        self.state = seed & 0xFFFFFFFF
+
+    def next(self, n):
+        self.state = (self.state * 1664525 + 1013904223) & 0xFFFFFFFF
+        return (self.state >> 8) % n
+
+
+class Glyph:
+    def __init__(self, advance, rects=None, components=None):
+        self.advance = advance
+        self.rects = rects or []
+        self.components = components or []
+
+    def bbox(self, glyphs):
+        if self.components:
+            boxes = [glyphs[c].bbox(glyphs) for c in self.components]
+        else:
+            boxes = [r for r in self.rects]
+        boxes = [b for b in boxes if b is not None]
+        if not boxes:
+            return None
+        return (min(b[0] for b in boxes), min(b[1] for b in boxes),
+                max(b[2] for b in boxes), max(b[3] for b in boxes))
+
+    def encode(self, glyphs):
+        box = self.bbox(glyphs)
+        if box is None:
+            return b""
+        if self.components:
+            data = struct.pack(">hhhhh", -1, *box)
+            for i, c in enumerate(self.components):
+                # ARG_1_AND_2_ARE_WORDS=0 ARGS_ARE_XY_VALUES=2 MORE_COMPONENTS=0x20
+                flags = 0x0002 | (0x0020 if i + 1 < len(self.components) else 0)
+                data += struct.pack(">HHbb", flags, c, 0, 0)
+            return data
+        data = struct.pack(">hhhhh", len(self.rects), *box)
+        for i in range(len(self.rects)):
+            data += struct.pack(">H", i * 4 + 3)
+        data += struct.pack(">H", 0)
+        points = []
+        for (x0, y0, x1, y1) in self.rects:
+            # clockwise outer contour
+            points += [(x0, y0), (x0, y1), (x1, y1), (x1, y0)]
+        data += bytes([0x01] * len(points))
+        lx = 0
+        for (x, _) in points:
+            data += struct.pack(">h", x - lx)
+            lx = x
+        ly = 0
+        for (_, y) in points:
+            data += struct.pack(">h", y - ly)
+            ly = y
+        return data
+
+
+def make_strokes(rng, count):
+    strokes = []
+    for _ in range(count):
+        if rng.next(2) == 0:
+            y = 60 + rng.next(680)
+            x0 = 80 + rng.next(300)
+            x1 = x0 + 200 + rng.next(920 - x0 - 200 + 1)
+            strokes.append((x0, y, min(x1, 920), y + 60))
+        else:
+            x = 80 + rng.next(780)
+            y0 = -40 + rng.next(300)
+            y1 = y0 + 250 + rng.next(800 - y0 - 250 + 1)
+            strokes.append((x, y0, x + 60, min(y1, 800)))
+    return strokes
+
+
+def place(rects, bx0, by0, bx1, by1):
+    """Maps strokes from the 80..920 x -40..800 design box into another box."""
+    out = []
+    for (x0, y0, x1, y1) in rects:
+        mx = lambda x: bx0 + (x - 80) * (bx1 - bx0) // 840
+        my = lambda y: by0 + (y + 40) * (by1 - by0) // 840
+        nx0, ny0, nx1, ny1 = mx(x0), my(y0), mx(x1), my(y1)
+        out.append((nx0, ny0, max(nx1, nx0 + 20), max(ny1, ny0 + 20)))
+    return out
+
+
+def build_glyphs():
+    glyphs = []
+    cmap = {}
+
+    # .notdef - a box with a hole
+    glyphs.append(Glyph(1000, [(100, -40, 900, 0), (100, 760, 900, 800),
+                               (100, 0, 140, 760), (860, 0, 900, 760)]))
+
+    rng = Rng(1)
+    # ASCII - proportional stroke glyphs
+    for cp in range(0x20, 0x7F):
+        if cp == 0x20:
+            cmap[cp] = len(glyphs)
+            glyphs.append(Glyph(320))
+            continue
+        advance = 380 + rng.next(300)
+        strokes = place(make_strokes(rng, 2 + rng.next(3)), 40, 0, advance - 40, 700)
+        cmap[cp] = len(glyphs)
+        glyphs.append(Glyph(advance, strokes))
+
+    # radicals in 5 placements: full, left, right, top, bottom
+    radicals = []
+    boxes = [(80, -40, 920, 800), (60, -60, 470, 820), (530, -60, 940, 820),
+             (60, 420, 940, 820), (60, -60, 940, 380)]
+    for r in range(NUM_RADICALS):
+        strokes = make_strokes(rng, 3 + rng.next(4))
+        ids = []
+        for box in boxes:
+            ids.append(len(glyphs))
+            glyphs.append(Glyph(1000, place(strokes, *box)))
+        radicals.append(ids)
+
+    dot = len(glyphs)
+    glyphs.append(Glyph(1000, [(120, -20, 260, 120)]))
+
+    def ideograph(cp):
+        h = (cp * 2654435761) & 0xFFFFFFFF
+        a = radicals[(h >> 4) % NUM_RADICALS]
+        b = radicals[(h >> 12) % NUM_RADICALS]
+        if (h >> 20) & 1:
+            return Glyph(1000, components=[a[1], b[2]])
+        return Glyph(1000, components=[a[3], b[4]])
+
+    def add(cp, g):
+        cmap[cp] = len(glyphs)
+        glyphs.append(g)
+
+    # CJK symbols and punctuation
+    add(0x3000, Glyph(1000))
+    for cp in range(0x3001, 0x3040):
+        add(cp, Glyph(1000, components=[dot]))
+    # hiragana and katakana
+    for cp in range(0x3041, 0x3100):
+        add(cp, Glyph(1000, components=[radicals[cp % NUM_RADICALS][0]]))
+    # CJK unified ideographs
+    for cp in range(0x4E00, 0xA000):
+        add(cp, ideograph(cp))
+    # fullwidth forms
+    for cp in range(0xFF01, 0xFF61):
+        add(cp, Glyph(1000, components=[dot]))
+    return glyphs, cmap
+
+
+def checksum(data):
+    data += b"\0" * ((4 - len(data) % 4) % 4)
+    return sum(struct.unpack(">%dI" % (len(data) // 4), data)) & 0xFFFFFFFF
+
+
+def make_cmap(cmap):
+    codes = sorted(c for c in cmap if c <= 0xFFFF)
+    segments = []
+    for c in codes:
+        if segments and c == segments[-1][1] + 1 and cmap[c] == cmap[segments[-1][1]] + 1:
+            segments[-1][1] = c
+        else:
+            segments.append([c, c])
+    segments.append([0xFFFF, 0xFFFF])
+    n = len(segments)
+    search_range = 2 * (1 << (n.bit_length() - 1))
+    entry_selector = n.bit_length() - 1
+    ends = b"".join(struct.pack(">H", e) for _, e in segments)
+    starts = b"".join(struct.pack(">H", s) for s, _ in segments)
+    deltas = b"".join(struct.pack(">H", ((cmap[s] - s) & 0xFFFF) if s != 0xFFFF else 1)
+                      for s, _ in segments)
+    offsets = b"\0\0" * n
+    body = struct.pack(">HHHH", 2 * n, search_range, entry_selector, 2 * n - search_range)
+    body += ends + b"\0\0" + starts + deltas + offsets
+    sub = struct.pack(">HHH", 4, 6 + len(body), 0) + body
+    return struct.pack(">HHHHIHHI", 0, 2, 0, 3, 20, 3, 1, 20) + sub
+
+
+def make_name():
+    names = [(0, "Generated by make_cjk_font.py, BSD license"), (1, FAMILY), (2, "Regular"),
+             (3, FAMILY + " Regular"), (4, FAMILY), (5, "Version 1.0"), (6, "TWLBenchCJK-Regular")]
+    records = b""
+    strings = b""
+    for nid, text in names:
+        data = text.encode("utf-16-be")
+        records += struct.pack(">HHHHHH", 3, 1, 0x409, nid, len(data), len(strings))
+        strings += data
+    return struct.pack(">HHH", 0, len(names), 6 + 12 * len(names)) + records + strings
+
+
+def build_font(path):
+    glyphs, cmap = build_glyphs()
+    num_glyphs = len(glyphs)
+
+    glyf = b""
+    loca = []
+    for g in glyphs:
+        loca.append(len(glyf))
+        data = g.encode(glyphs)
+        glyf += data + b"\0" * ((4 - len(data) % 4) % 4)
+    loca.append(len(glyf))
+
+    boxes = [b for b in (g.bbox(glyphs) for g in glyphs) if b is not None]
+    x_min = min(b[0] for b in boxes)
+    y_min = min(b[1] for b in boxes)
+    x_max = max(b[2] for b in boxes)
+    y_max = max(b[3] for b in boxes)
+    max_points = max(len(g.rects) * 4 for g in glyphs)
+    max_contours = max(len(g.rects) for g in glyphs)
+    max_comp_points = max(sum(len(glyphs[c].rects) * 4 for c in g.components) for g in glyphs)
+    max_comp_contours = max(sum(len(glyphs[c].rects) for c in g.components) for g in glyphs)
+
+    tables = {}
+    tables["head"] = struct.pack(">IIIIHHqqhhhhHHhhh", 0x00010000, 0x00010000, 0, 0x5F0F3CF5,
+                                 0x000B, UNITS_PER_EM, 0, 0, x_min, y_min, x_max, y_max,
+                                 0, 8, 2, 1, 0)
+    tables["hhea"] = struct.pack(">IhhhHhhhhhhhhhhhH", 0x00010000, ASCENT, DESCENT, 0,
+                                 max(g.advance for g in glyphs), x_min, 0, x_max, 1, 0, 0,
+                                 0, 0, 0, 0, 0, num_glyphs)
+    tables["maxp"] = struct.pack(">IHHHHHHHHHHHHHH", 0x00010000, num_glyphs, max_points,
+                                 max_contours, max_comp_points, max_comp_contours,
+                                 2, 0, 0, 0, 0, 0, 0, 2, 1)
+    tables["OS/2"] = struct.pack(">HhHHHhhhhhhhhhhh10sIIII4sHHHhhhHHIIhhHHH",
+                                 4, 1000, 400, 5, 0, 650, 700, 0, 140, 650, 700, 0, 480,
+                                 50, 250, 0, b"\0" * 10, 1, 0x08070000, 0, 0, b"TWL ",
+                                 0x40, 0x20, 0xFF60, ASCENT, DESCENT, 0, ASCENT, -DESCENT,
+                                 0x00060001, 0, 500, 700, 0, 0x20, 0)
+    tables["hmtx"] = b"".join(struct.pack(">Hh", g.advance,
+                                          (g.bbox(glyphs) or (0,))[0]) for g in glyphs)
+    tables["cmap"] = make_cmap(cmap)
+    tables["loca"] = b"".join(struct.pack(">I", o) for o in loca)
+    tables["glyf"] = glyf
+    tables["name"] = make_name()
+    tables["post"] = struct.pack(">IIhhIIIII", 0x00030000, 0, -100, 50, 0, 0, 0, 0, 0)
+
+    tags = sorted(tables)
+    n = len(tags)
+    search_range = 16 * (1 << (n.bit_length() - 1))
+    header = struct.pack(">IHHHH", 0x00010000, n, search_range, n.bit_length() - 1,
+                         16 * n - search_range)
+    offset = 12 + 16 * n
+    directory = b""
+    body = b""
+    head_offset = 0
+    for tag in tags:
+        data = tables[tag]
+        if tag == "head":
+            head_offset = offset
+        directory += struct.pack(">4sIII", tag.encode("ascii"), checksum(data), offset, len(data))
+        data += b"\0" * ((4 - len(data) % 4) % 4)
+        body += data
+        offset += len(data)
+    font = bytearray(header + directory + body)
+    adjustment = (0xB1B0AFBA - checksum(bytes(font))) & 0xFFFFFFFF
+    struct.pack_into(">I", font, head_offset + 8, adjustment)
+    with open(path, "wb") as f:
+        f.write(font)
+    print("%s: %d glyphs, %d code points, %d bytes" % (path, num_glyphs, len(cmap), len(font)))
+
+
+if __name__ == "__main__":
+    build_font(sys.argv[1] if len(sys.argv) > 1 else "TWLBenchCJK.ttf")
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Locates the fonts used by the benchmarks. The fonts are selected with
+ * system properties:
+ * <ul>
+ * <li>{@code bench.font} - a latin TTF font</li>
+ * <li>{@code bench.cjkFont} - a TTF font with CJK glyphs</li>
+ * <li>{@code bench.fontDir} - a folder with TTF fonts for the registration benchmark</li>
+ * </ul>
+ * When a property is not set the fonts in the {@code bench/fonts} folder
+ * are used, then some well known locations of open licensed fonts are tried.
+ * 
+ * <p>The bundled CJK font is generated by {@code make_cjk_font.py}. Its
+ * glyphs are not real characters, but it has the glyph count and the glyph
+ * structure of a real CJK font. FontData can't load TrueType collections,
+ * so only {@code .ttf} files are candidates.</p>
+ *
+ * @author Matthias Mann
+ */
+final class BenchFonts {
+
+    private static final String[] LATIN_FONTS = {
+        "fonts/DejaVuSans.ttf",
+        "bench/fonts/DejaVuSans.ttf",
+        "/usr/share/fonts/truetype/dejavu/DejaVuSans.ttf",
+        "/usr/share/fonts/dejavu/DejaVuSans.ttf",
+        "/usr/share/fonts/truetype/liberation/LiberationSans-Regular.ttf",
+        "/Library/Fonts/Arial.ttf",
+        "C:/Windows/Fonts/arial.ttf",
+    };
+    
+    private static final String[] CJK_FONTS = {
+        "fonts/TWLBenchCJK.ttf",
+        "bench/fonts/TWLBenchCJK.ttf",
+        "/usr/share/fonts/truetype/droid/DroidSansFallbackFull.ttf",
+        "C:/Windows/Fonts/simhei.ttf",
+    };
+    
+    private static final String[] FONT_DIRS = {
+        "fonts",
+        "bench/fonts",
+        "/usr/share/fonts/truetype",
+        "/Library/Fonts",
+        "C:/Windows/Fonts",
+    };
+    
+    private BenchFonts() {
+    }
+    
+    static URL getLatinFont() throws IOException {
+        return find("bench.font", LATIN_FONTS).toURI().toURL();
+    }
+    
+    /**
+     * Returns the CJK font. Falls back to the latin font, in which case the
+     * CJK corpus measures the missing glyph.
+     * 
+     * @return the font URL
+     * @throws IOException if no font was found
+     */
+    static URL getCJKFont() throws IOException {
+        try {
+            return find("bench.cjkFont", CJK_FONTS).toURI().toURL();
+        } catch (IOException ex) {
+            return getLatinFont();
+        }
+    }
+    
+    static File getFontDir() throws IOException {
+        return find("bench.fontDir", FONT_DIRS);
+    }
+    
+    private static File find(String property, String[] candidates) throws IOException {
+        String value = System.getProperty(property);
+        if(value != null && value.length() > 0) {
+            File file = new File(value);
+            if(!file.exists()) {
+                throw new IOException(property + " does not exist: " + file);
+            }
+            return file;
+        }
+        for(String candidate : candidates) {
+            File file = new File(candidate);
+            if(file.exists()) {
+                return file;
+            }
+        }
+        throw new IOException("No font found - set the system property " + property);
+    }
+}
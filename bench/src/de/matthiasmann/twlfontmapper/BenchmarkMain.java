@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import java.util.ArrayList;
+import java.util.Map;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks headless and writes the results as JSON.
+ * 
+ * <p>Usage: {@code BenchmarkMain [result.json] [include regexp]}</p>
+ * 
+ * <p>All {@code bench.*} system properties and the native library path
+ * are passed to the forked benchmark JVMs. The GC profiler is enabled so
+ * that the results contain the allocation rate of every benchmark
+ * ({@code gc.alloc.rate.norm} in bytes per operation).</p>
+ *
+ * @author Matthias Mann
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException {
+        String result = (args.length > 0) ? args[0] : "bench-results.json";
+        String include = (args.length > 1) ? args[1] : "de\\.matthiasmann\\.twlfontmapper\\..*Benchmark";
+        
+        ArrayList<String> jvmArgs = new ArrayList<String>();
+        jvmArgs.add("-Djava.awt.headless=true");
+        for(Map.Entry<Object, Object> e : System.getProperties().entrySet()) {
+            String key = e.getKey().toString();
+            if(key.startsWith("bench.") || key.equals("java.library.path")) {
+                jvmArgs.add("-D" + key + "=" + e.getValue());
+            }
+        }
+        
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .include(include)
+                .addProfiler(GCProfiler.class)
+                .jvmArgsAppend(jvmArgs.toArray(new String[jvmArgs.size()]))
+                .resultFormat(ResultFormatType.JSON)
+                .result(result);
+        
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cells of a table with 100k rows, once with one
+ * {@link TTFFontRenderer#computeTextWidth(java.lang.CharSequence, int, int) }
+ * call per cell and once with the batch methods. The score is the number
+ * of measured rows per millisecond.
+ *
+ * @author Matthias Mann
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkMeasureBenchmark {
+
+    private static final int ROWS = 100000;
+    
+    private FontData fontData;
+    private TTFFontRenderer renderer;
+    private String[] rows;
+    private char[] packedChars;
+    private int[] packedOffsets;
+    private int[] widths;
+    private ForkJoinPool pool;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fontData = new FontData(BenchFonts.getLatinFont());
+        renderer = new TTFFontRenderer(new CPUFontRenderBackend(), fontData, 16, 0);
+        
+        rows = new String[ROWS];
+        packedOffsets = new int[ROWS + 1];
+        StringBuilder sb = new StringBuilder();
+        for(int i=0 ; i<ROWS ; i++) {
+            String cell = TextCorpus.ASCII_UI[i % TextCorpus.ASCII_UI.length];
+            rows[i] = (i % 3 == 0) ? cell : cell + " #" + i;
+            packedOffsets[i] = sb.length();
+            sb.append(rows[i]);
+        }
+        packedOffsets[ROWS] = sb.length();
+        packedChars = sb.toString().toCharArray();
+        widths = new int[ROWS];
+        pool = new ForkJoinPool();
+        
+        // create all glyphs and check that all methods agree
+        int[] expected = new int[ROWS];
+        for(int i=0 ; i<ROWS ; i++) {
+            expected[i] = renderer.computeTextWidth(rows[i], 0, rows[i].length());
+        }
+        renderer.computeTextWidths(rows, widths);
+        check(expected);
+        renderer.computeTextWidths(packedChars, packedOffsets, ROWS, widths);
+        check(expected);
+        renderer.computeTextWidths(Arrays.asList(rows), widths);
+        check(expected);
+    }
+    
+    private void check(int[] expected) {
+        if(!Arrays.equals(expected, widths)) {
+            throw new AssertionError("batch widths differ from computeTextWidth");
+        }
+        Arrays.fill(widths, 0);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+        renderer.destroy();
+        fontData.destroy();
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int[] singleCalls() {
+        for(int i=0 ; i<ROWS ; i++) {
+            String str = rows[i];
+            widths[i] = renderer.computeTextWidth(str, 0, str.length());
+        }
+        return widths;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int[] batchArray() {
+        renderer.computeTextWidths(rows, widths);
+        return widths;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int[] batchPacked() {
+        renderer.computeTextWidths(packedChars, packedOffsets, ROWS, widths);
+        return widths;
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int[] batchParallel() throws InterruptedException {
+        renderer.computeTextWidths(rows, widths, pool);
+        return widths;
+    }
+}
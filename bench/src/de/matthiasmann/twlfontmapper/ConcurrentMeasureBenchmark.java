@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import de.matthiasmann.twl.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stress test for measuring text on several threads while the render
+ * thread draws with the same font renderer.
+ * 
+ * <p>Every iteration starts with an empty glyph table so that the worker
+ * threads and the render thread create glyphs concurrently. Each measured
+ * width is compared with the width computed by a separate font renderer
+ * on a single thread - a difference fails the benchmark.</p>
+ * 
+ * <p>{@code measureAndDraw} runs 3 measuring threads and 1 drawing thread.
+ * {@code measureOnly} runs 4 measuring threads on a filled glyph table,
+ * compare it with {@link MeasureBenchmark} to see how the lookup scales.</p>
+ *
+ * @author Matthias Mann
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ConcurrentMeasureBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Texts {
+        String[] texts;
+        int[] expected;
+        FontData fontData;
+        
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            fontData = new FontData(BenchFonts.getCJKFont());
+            String[] cjk = TextCorpus.get("cjk");
+            String[] mixed = TextCorpus.get("mixed");
+            String[] ascii = TextCorpus.get("ascii");
+            texts = new String[cjk.length + mixed.length + ascii.length];
+            System.arraycopy(cjk, 0, texts, 0, cjk.length);
+            System.arraycopy(mixed, 0, texts, cjk.length, mixed.length);
+            System.arraycopy(ascii, 0, texts, cjk.length + mixed.length, ascii.length);
+            
+            TTFFontRenderer reference = new TTFFontRenderer(new CPUFontRenderBackend(), fontData, 16, 0);
+            expected = new int[texts.length];
+            for(int i=0 ; i<texts.length ; i++) {
+                expected[i] = reference.computeTextWidth(texts[i], 0, texts[i].length());
+            }
+            reference.destroy();
+        }
+        
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            fontData.destroy();
+        }
+        
+        int measure(TTFFontRenderer renderer, int idx) {
+            String text = texts[idx];
+            int width = renderer.computeTextWidth(text, 0, text.length());
+            if(width != expected[idx]) {
+                throw new AssertionError("text " + idx + ": width " + width + " expected " + expected[idx]);
+            }
+            return width;
+        }
+    }
+    
+    /**
+     * A font renderer with an empty glyph table for every iteration.
+     */
+    @State(Scope.Group)
+    public static class Renderer {
+        TTFFontRenderer renderer;
+        final AtomicInteger next = new AtomicInteger();
+        
+        @Setup(Level.Iteration)
+        public void setup(Texts texts) {
+            renderer = new TTFFontRenderer(new CPUFontRenderBackend(
+                    new BufferedImage(1024, 64, BufferedImage.TYPE_INT_ARGB)),
+                    texts.fontData, 16, 0);
+        }
+        
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            renderer.destroy();
+        }
+    }
+    
+    @State(Scope.Benchmark)
+    public static class SharedRenderer {
+        TTFFontRenderer renderer;
+        final AtomicInteger next = new AtomicInteger();
+        
+        @Setup(Level.Trial)
+        public void setup(Texts texts) {
+            renderer = new TTFFontRenderer(new CPUFontRenderBackend(), texts.fontData, 16, 0);
+            for(String text : texts.texts) {
+                renderer.computeTextWidth(text, 0, text.length());
+            }
+        }
+        
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            renderer.destroy();
+        }
+    }
+    
+    @Benchmark
+    @Group("measureAndDraw")
+    @GroupThreads(3)
+    public int measure(Texts texts, Renderer r) {
+        int idx = (r.next.getAndIncrement() & Integer.MAX_VALUE) % texts.texts.length;
+        return texts.measure(r.renderer, idx);
+    }
+    
+    @Benchmark
+    @Group("measureAndDraw")
+    @GroupThreads(1)
+    public int draw(Texts texts, Renderer r) {
+        int width = 0;
+        TTFFontRenderer renderer = r.renderer;
+        if(renderer.prepare(Color.BLACK)) {
+            try {
+                for(String text : texts.texts) {
+                    width += renderer.drawText(0, 0, text, 0, text.length());
+                }
+            } finally {
+                renderer.cleanup();
+            }
+        }
+        return width;
+    }
+    
+    @Benchmark
+    @Threads(4)
+    public int measureOnly(Texts texts, SharedRenderer r) {
+        int idx = (r.next.getAndIncrement() & Integer.MAX_VALUE) % texts.texts.length;
+        return texts.measure(r.renderer, idx);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import de.matthiasmann.twl.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the distance field mode with one rasterized font renderer per
+ * size. Each invocation starts with empty textures and draws the corpus
+ * once at every size.
+ * 
+ * <p>Besides the time the following counters are reported:</p><ul>
+ * <li>{@code rasterizedGlyphs} - the number of glyph bitmaps which were
+ * rasterized and uploaded</li>
+ * <li>{@code uploadedBytes} - the texture area covered by these glyphs</li>
+ * <li>{@code memoryUsage} - the estimated memory of all font renderers
+ * including their textures</li>
+ * </ul>
+ *
+ * @author Matthias Mann
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DistanceFieldBenchmark {
+
+    private static final int[] SIZES = { 12, 14, 16, 20, 24, 32, 48 };
+    
+    private static final int DISTANCE_FIELD_SIZE = 32;
+    
+    @Param({"perSize", "distanceField"})
+    public String mode;
+    
+    @Param({"ascii", "cjk"})
+    public String corpus;
+    
+    private FontData fontData;
+    private String[] texts;
+    private TTFFontRenderer source;
+    private TTFFontRenderer[] renderers;
+    
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long rasterizedGlyphs;
+        public long uploadedBytes;
+        public long memoryUsage;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            rasterizedGlyphs = 0;
+            uploadedBytes = 0;
+            memoryUsage = 0;
+        }
+        
+        void add(TTFFontRenderer renderer) {
+            FontStatistics stats = renderer.getStatistics();
+            rasterizedGlyphs += stats.getUploadCalls();
+            uploadedBytes += stats.getUploadBytes();
+            memoryUsage += renderer.getMemoryUsage();
+        }
+    }
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fontData = new FontData("ascii".equals(corpus)
+                ? BenchFonts.getLatinFont() : BenchFonts.getCJKFont());
+        texts = TextCorpus.get(corpus);
+    }
+    
+    @Setup(Level.Invocation)
+    public void createRenderers() {
+        CPUFontRenderBackend backend = new CPUFontRenderBackend(
+                new BufferedImage(1024, 256, BufferedImage.TYPE_INT_ARGB));
+        renderers = new TTFFontRenderer[SIZES.length];
+        if("distanceField".equals(mode)) {
+            source = new TTFFontRenderer(backend, fontData, DISTANCE_FIELD_SIZE, DISTANCE_FIELD_SIZE / 8);
+            for(int i=0 ; i<SIZES.length ; i++) {
+                renderers[i] = new TTFFontRenderer(source, SIZES[i] / (float)DISTANCE_FIELD_SIZE);
+            }
+        } else {
+            source = null;
+            for(int i=0 ; i<SIZES.length ; i++) {
+                renderers[i] = new TTFFontRenderer(backend, fontData, SIZES[i], 0);
+            }
+        }
+    }
+    
+    @TearDown(Level.Invocation)
+    public void destroyRenderers() {
+        for(TTFFontRenderer renderer : renderers) {
+            renderer.destroy();
+        }
+        if(source != null) {
+            source.destroy();
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fontData.destroy();
+    }
+    
+    @Benchmark
+    public int drawAllSizes(Counters counters) {
+        int sum = 0;
+        for(TTFFontRenderer renderer : renderers) {
+            if(renderer.prepare(Color.BLACK)) {
+                try {
+                    int y = 0;
+                    for(String text : texts) {
+                        sum += renderer.drawText(0, y, text, 0, text.length());
+                        y += renderer.lineHeight;
+                    }
+                } finally {
+                    renderer.cleanup();
+                }
+            }
+            counters.add(renderer);
+        }
+        if(source != null) {
+            counters.add(source);
+        }
+        return sum;
+    }
+}
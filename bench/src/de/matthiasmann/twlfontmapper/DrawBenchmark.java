@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import de.matthiasmann.twl.Color;
+import de.matthiasmann.twl.HAlignment;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the draw path with the {@link CPUFontRenderBackend}. All glyphs
+ * are uploaded during setup.
+ *
+ * @author Matthias Mann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DrawBenchmark {
+
+    private static final int SCREEN_GLYPHS = 20000;
+
+    @Param({"ascii", "cjk", "mixed"})
+    public String corpus;
+    
+    @Param({"16"})
+    public int fontSize;
+    
+    private FontData fontData;
+    private TTFFontRenderer renderer;
+    private String[] texts;
+    private StringBuilder screen;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        CPUFontRenderBackend backend = new CPUFontRenderBackend(
+                new BufferedImage(1024, 256, BufferedImage.TYPE_INT_ARGB));
+        fontData = new FontData("ascii".equals(corpus)
+                ? BenchFonts.getLatinFont() : BenchFonts.getCJKFont());
+        renderer = new TTFFontRenderer(backend, fontData, fontSize, 0);
+        texts = TextCorpus.get(corpus);
+        screen = new StringBuilder();
+        while(screen.length() < SCREEN_GLYPHS) {
+            for(String text : texts) {
+                screen.append(text).append('\n');
+            }
+        }
+        screen.setLength(SCREEN_GLYPHS);
+        drawText();
+        drawScreen();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        renderer.destroy();
+        fontData.destroy();
+    }
+    
+    @Benchmark
+    public int drawText() {
+        int sum = 0;
+        if(renderer.prepare(Color.BLACK)) {
+            try {
+                int y = 0;
+                for(String text : texts) {
+                    sum += renderer.drawText(0, y, text, 0, text.length());
+                    y += renderer.lineHeight;
+                }
+            } finally {
+                renderer.cleanup();
+            }
+        }
+        return sum;
+    }
+    
+    /**
+     * Draws a screen full of text with one prepare/cleanup. After the first
+     * frame the vertex buffer has grown so that it is submitted in a few
+     * batches.
+     */
+    @Benchmark
+    public int drawScreen() {
+        int numLines = 0;
+        if(renderer.prepare(Color.BLACK)) {
+            try {
+                numLines = renderer.drawMultiLineText(0, 0, screen, 1024, HAlignment.LEFT);
+            } finally {
+                renderer.cleanup();
+            }
+        }
+        return numLines;
+    }
+}
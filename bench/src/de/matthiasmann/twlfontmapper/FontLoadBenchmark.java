@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading of font files, scanning a font folder and reading and
+ * writing the font cache.
+ *
+ * @author Matthias Mann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FontLoadBenchmark {
+
+    private URL fontURL;
+    private File fontDir;
+    private Properties fontCache;
+    private File fontCacheFile;
+    private FontCacheIO fontCacheWriter;
+    private FontCacheIO fontCacheReader;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fontURL = BenchFonts.getLatinFont();
+        fontDir = BenchFonts.getFontDir();
+        
+        TWLFontMapper mapper = TWLFontMapper.create(new CPUFontRenderBackend());
+        mapper.setFontCache(new Properties());
+        mapper.registerFonts(fontDir, true);
+        fontCache = mapper.getFontCache();
+        mapper.destroy();
+        
+        fontCacheFile = File.createTempFile("twlfontcache", ".xml");
+        fontCacheWriter = new FontCacheIO(fontCacheFile);
+        fontCacheWriter.getFontCache().putAll(fontCache);
+        fontCacheWriter.write();
+        fontCacheReader = new FontCacheIO(fontCacheFile);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fontCacheFile.delete();
+    }
+    
+    @Benchmark
+    public String loadFontData() throws IOException {
+        FontData fd = new FontData(fontURL);
+        fd.destroy();
+        return fd.getName(FontData.NAME_FONT_FAMILY);
+    }
+    
+    @Benchmark
+    public int loadFontDataAndFirstGlyph() throws IOException {
+        FontData fd = new FontData(fontURL);
+        TTFFontRenderer renderer = new TTFFontRenderer(new CPUFontRenderBackend(), fd, 16, 0);
+        int width = renderer.computeTextWidth("A", 0, 1);
+        renderer.destroy();
+        fd.destroy();
+        return width;
+    }
+    
+    @Benchmark
+    public long registerFontsUncached() {
+        TWLFontMapper mapper = TWLFontMapper.create(new CPUFontRenderBackend());
+        try {
+            mapper.registerFonts(fontDir, true);
+            return mapper.getMemoryUsage();
+        } finally {
+            // don't leak the loaded fonts into the next invocations
+            mapper.destroy();
+        }
+    }
+    
+    @Benchmark
+    public long registerFontsCached() {
+        TWLFontMapper mapper = TWLFontMapper.create(new CPUFontRenderBackend());
+        try {
+            mapper.setFontCache(fontCache);
+            mapper.registerFonts(fontDir, true);
+            return mapper.getMemoryUsage();
+        } finally {
+            mapper.destroy();
+        }
+    }
+    
+    @Benchmark
+    public long writeFontCache() throws IOException {
+        fontCacheWriter.write();
+        return fontCacheFile.length();
+    }
+    
+    @Benchmark
+    public Properties readFontCache() throws IOException {
+        fontCacheReader.read();
+        return fontCacheReader.getFontCache();
+    }
+}
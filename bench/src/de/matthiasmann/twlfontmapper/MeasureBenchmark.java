@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import de.matthiasmann.twl.HAlignment;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures text with all glyphs already in the glyph table.
+ *
+ * @author Matthias Mann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MeasureBenchmark {
+
+    @Param({"ascii", "cjk", "mixed"})
+    public String corpus;
+    
+    @Param({"16"})
+    public int fontSize;
+    
+    private FontData fontData;
+    private TTFFontRenderer renderer;
+    private String[] texts;
+    private String paragraph;
+    private int[] multiLineInfo;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        fontData = new FontData("ascii".equals(corpus)
+                ? BenchFonts.getLatinFont() : BenchFonts.getCJKFont());
+        renderer = new TTFFontRenderer(new CPUFontRenderBackend(), fontData, fontSize, 0);
+        texts = TextCorpus.get(corpus);
+        paragraph = TextCorpus.getParagraph(corpus);
+        multiLineInfo = new int[paragraph.split("\n").length];
+        
+        // create all glyphs so that only the lookup is measured
+        renderer.computeTextWidth(paragraph, 0, paragraph.length());
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        renderer.destroy();
+        fontData.destroy();
+    }
+    
+    @Benchmark
+    public int computeTextWidth() {
+        int sum = 0;
+        for(String text : texts) {
+            sum += renderer.computeTextWidth(text, 0, text.length());
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    public int computeVisibleGlyphs() {
+        int sum = 0;
+        for(String text : texts) {
+            sum += renderer.computeVisibleGlpyhs(text, 0, text.length(), 10 * fontSize);
+        }
+        return sum;
+    }
+    
+    @Benchmark
+    public int[] computeMultiLineInfo() {
+        renderer.computeMultiLineInfo(paragraph, 40 * fontSize, HAlignment.CENTER, multiLineInfo);
+        return multiLineInfo;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import de.matthiasmann.twl.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares drawing and measuring a changing counter with
+ * {@link TTFFontRenderer#drawNumber(int, int, long, int) } against
+ * formatting it into a string first. Run with the GC profiler (as done by
+ * {@link BenchmarkMain}) to compare the allocation rate.
+ *
+ * @author Matthias Mann
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NumberBenchmark {
+
+    @Param({"16"})
+    public int fontSize;
+    
+    private FontData fontData;
+    private TTFFontRenderer renderer;
+    private long counter;
+    
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        CPUFontRenderBackend backend = new CPUFontRenderBackend(
+                new BufferedImage(256, 64, BufferedImage.TYPE_INT_ARGB));
+        fontData = new FontData(BenchFonts.getLatinFont());
+        renderer = new TTFFontRenderer(backend, fontData, fontSize, 0);
+        counter = 1234567;
+        drawString();
+        drawNumber();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        renderer.destroy();
+        fontData.destroy();
+    }
+    
+    @Benchmark
+    public int measureString() {
+        String str = Long.toString(counter++);
+        return renderer.computeTextWidth(str, 0, str.length());
+    }
+    
+    @Benchmark
+    public int measureNumber() {
+        return renderer.computeNumberWidth(counter++);
+    }
+    
+    @Benchmark
+    public int drawString() {
+        int width = 0;
+        if(renderer.prepare(Color.BLACK)) {
+            try {
+                String str = Long.toString(counter++);
+                width = renderer.drawText(0, 0, str, 0, str.length());
+            } finally {
+                renderer.cleanup();
+            }
+        }
+        return width;
+    }
+    
+    @Benchmark
+    public int drawNumber() {
+        int width = 0;
+        if(renderer.prepare(Color.BLACK)) {
+            try {
+                width = renderer.drawNumber(0, 0, counter++);
+            } finally {
+                renderer.cleanup();
+            }
+        }
+        return width;
+    }
+    
+    @Benchmark
+    public int drawFixedPoint() {
+        int width = 0;
+        if(renderer.prepare(Color.BLACK)) {
+            try {
+                width = renderer.drawNumber(0, 0, counter++, 2);
+            } finally {
+                renderer.cleanup();
+            }
+        }
+        return width;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+/**
+ * Fixed text corpora for the benchmarks. The texts never change so that
+ * results of different versions can be compared.
+ *
+ * @author Matthias Mann
+ */
+final class TextCorpus {
+
+    static final String[] ASCII_UI = {
+        "OK", "Cancel", "Apply", "File", "Edit", "View", "Help",
+        "Open recent project...", "Save as", "Preferences",
+        "Show hidden files", "Window", "Select all", "Find and replace",
+        "The quick brown fox jumps over the lazy dog.",
+        "Connection timed out after 30 seconds.",
+        "Volume: 75%", "Resolution 1920 x 1080", "Player 1 wins!",
+    };
+    
+    static final String CJK_PARAGRAPH =
+        "\u5b57\u4f53\u6e32\u67d3\u9700\u8981\u5728\u6bcf\u4e00\u5e27\u4e2d\u5feb\u901f\u6d4b\u91cf\u6587\u672c\u5bbd\u5ea6\u3002" +
+        "\u7528\u6237\u754c\u9762\u901a\u5e38\u5305\u542b\u5927\u91cf\u77ed\u5b57\u7b26\u4e32\uff0c\u800c\u6587\u6863\u89c6\u56fe\u5219\u5305\u542b\u8f83\u957f\u7684\u6bb5\u843d\u3002" +
+        "\u7f13\u5b58\u5b57\u5f62\u53ef\u4ee5\u907f\u514d\u91cd\u590d\u5149\u6805\u5316\uff0c\u5e76\u51cf\u5c11\u7eb9\u7406\u4e0a\u4f20\u7684\u6b21\u6570\u3002" +
+        "\u65e5\u672c\u8a9e\u306e\u30c6\u30ad\u30b9\u30c8\u3082\u540c\u3058\u7d4c\u8def\u3067\u6e2c\u5b9a\u3055\u308c\u307e\u3059\u3002";
+    
+    static final String MIXED_PARAGRAPH =
+        "Release notes: \u5b57\u4f53\u6e32\u67d3 now caches glyphs per size.\n" +
+        "Kerning (AV, To, Wa) is applied between latin glyphs, \u7528\u6237\u754c\u9762 text uses the fallback font.\n" +
+        "Numbers 0123456789 and punctuation: ,.;:!? are common in UI labels.\n" +
+        "\u65e5\u672c\u8a9e\u306e\u30c6\u30ad\u30b9\u30c8 mixed with English words and a-very-long-hyphenated-word.";
+    
+    private TextCorpus() {
+    }
+    
+    /**
+     * Returns the texts of a corpus.
+     * 
+     * @param name one of "ascii", "cjk" or "mixed"
+     * @return the texts
+     */
+    static String[] get(String name) {
+        if("ascii".equals(name)) {
+            return ASCII_UI;
+        }
+        if("cjk".equals(name)) {
+            return new String[] { CJK_PARAGRAPH };
+        }
+        if("mixed".equals(name)) {
+            return MIXED_PARAGRAPH.split("\n");
+        }
+        throw new IllegalArgumentException("Unknown corpus: " + name);
+    }
+    
+    static String getParagraph(String name) {
+        if("ascii".equals(name)) {
+            StringBuilder sb = new StringBuilder();
+            for(String str : ASCII_UI) {
+                sb.append(str).append(' ');
+            }
+            return sb.toString();
+        }
+        if("cjk".equals(name)) {
+            return CJK_PARAGRAPH;
+        }
+        if("mixed".equals(name)) {
+            return MIXED_PARAGRAPH;
+        }
+        throw new IllegalArgumentException("Unknown corpus: " + name);
+    }
+}
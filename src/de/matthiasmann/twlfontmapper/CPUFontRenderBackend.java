@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import de.matthiasmann.twl.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * A backend which draws text into a {@link BufferedImage} without any
+ * graphics hardware. It can be used for server side text rendering and
+ * to test or profile the draw path on headless machines.
+ * 
+ * <p>Glyphs are sampled with nearest filtering and blended source-over
+ * into the target image, which must be of type
+ * {@link BufferedImage#TYPE_INT_ARGB}. Drawing without a target image
+ * only updates the textures.</p>
+ * 
+ * @author Matthias Mann
+ */
+public class CPUFontRenderBackend implements FontRenderBackend {
+    
+    private BufferedImage target;
+    private int[] pixels;
+    private int targetWidth;
+    private int targetHeight;
+
+    public CPUFontRenderBackend() {
+    }
+
+    public CPUFontRenderBackend(BufferedImage target) {
+        setTarget(target);
+    }
+
+    public BufferedImage getTarget() {
+        return target;
+    }
+
+    /**
+     * Sets the image which receives the text.
+     * 
+     * @param target the target image or null
+     * @throws IllegalArgumentException if the image is not of type TYPE_INT_ARGB
+     */
+    public final void setTarget(BufferedImage target) {
+        if(target != null && target.getType() != BufferedImage.TYPE_INT_ARGB) {
+            throw new IllegalArgumentException("target must be TYPE_INT_ARGB");
+        }
+        this.target = target;
+        if(target != null) {
+            this.pixels = ((DataBufferInt)target.getRaster().getDataBuffer()).getData();
+            this.targetWidth = target.getWidth();
+            this.targetHeight = target.getHeight();
+        } else {
+            this.pixels = null;
+            this.targetWidth = 0;
+            this.targetHeight = 0;
+        }
+    }
+
+    public AtlasTexture createTexture(int width, int height, boolean linearFilter) {
+        return new Texture(width, height);
+    }
+
+    public QuadBatch createQuadBatch(int maxQuads) {
+        return new Batch(maxQuads);
+    }
+
+    final void blend(int idx, int argb, int alpha) {
+        if(alpha == 0) {
+            return;
+        }
+        int dst = pixels[idx];
+        int dstAlpha = dst >>> 24;
+        if(alpha == 255 || dstAlpha == 0) {
+            pixels[idx] = (alpha << 24) | (argb & 0xFFFFFF);
+            return;
+        }
+        // source-over for non premultiplied colors
+        int dstWeight = dstAlpha * (255 - alpha) / 255;
+        int outAlpha = alpha + dstWeight;
+        int r = (((argb >> 16) & 255) * alpha + ((dst >> 16) & 255) * dstWeight) / outAlpha;
+        int g = (((argb >>  8) & 255) * alpha + ((dst >>  8) & 255) * dstWeight) / outAlpha;
+        int b = (( argb        & 255) * alpha + ( dst        & 255) * dstWeight) / outAlpha;
+        pixels[idx] = (outAlpha << 24) | (r << 16) | (g << 8) | b;
+    }
+    
+    static class Texture implements AtlasTexture {
+        final int width;
+        final int height;
+        final byte[] data;
+
+        Texture(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.data = new byte[width * height];
+        }
+
+        public int getTexWidth() {
+            return width;
+        }
+
+        public int getTexHeight() {
+            return height;
+        }
+
+        public void upload(int x, int y, int width, int height, ByteBuffer data) {
+            ByteBuffer src = data.duplicate();
+            for(int row=0 ; row<height ; row++) {
+                src.position(row * width);
+                src.get(this.data, (y + row) * this.width + x, width);
+            }
+        }
+
+        public void destroy() {
+        }
+    }
+    
+    class Batch implements QuadBatch {
+        private FloatBuffer vertices;
+        private int[] quadColors;
+        private Texture texture;
+        private int argb;
+        private int colorStart;
+        private boolean distanceField;
+
+        Batch(int maxQuads) {
+            this.vertices = FloatBuffer.allocate(maxQuads * 16);
+            this.quadColors = new int[maxQuads];
+        }
+
+        public FloatBuffer getVertices() {
+            return vertices;
+        }
+
+        public void setCapacity(int maxQuads) {
+            this.vertices = FloatBuffer.allocate(maxQuads * 16);
+            this.quadColors = new int[maxQuads];
+        }
+
+        public boolean begin(AtlasTexture texture, Color color, boolean distanceField) {
+            if(color.getAlpha() == 0) {
+                return false;
+            }
+            this.texture = (Texture)texture;
+            this.argb = color.toARGB();
+            this.colorStart = 0;
+            this.distanceField = distanceField;
+            return true;
+        }
+
+        public void setColor(int argb) {
+            if(this.argb != argb) {
+                fillColors();
+                this.argb = argb;
+            }
+        }
+        
+        private void fillColors() {
+            int numQuads = vertices.position() / 16;
+            for(int i=colorStart ; i<numQuads ; i++) {
+                quadColors[i] = argb;
+            }
+            colorStart = numQuads;
+        }
+
+        public void flush() {
+            fillColors();
+            int numQuads = vertices.position() / 16;
+            if(pixels != null) {
+                for(int i=0 ; i<numQuads ; i++) {
+                    drawQuad(i * 16, quadColors[i]);
+                }
+            }
+            vertices.clear();
+            colorStart = 0;
+        }
+
+        public void end() {
+            flush();
+            texture = null;
+        }
+
+        public void destroy() {
+        }
+        
+        private void drawQuad(int off, int argb) {
+            // vertex 0 is the top left and vertex 2 the bottom right corner
+            final FloatBuffer va = vertices;
+            float s0 = va.get(off);
+            float t0 = va.get(off + 1);
+            int x0 = (int)va.get(off + 2);
+            int y0 = (int)va.get(off + 3);
+            float s1 = va.get(off + 8);
+            float t1 = va.get(off + 9);
+            int x1 = (int)va.get(off + 10);
+            int y1 = (int)va.get(off + 11);
+            if(x1 <= x0 || y1 <= y0) {
+                return;
+            }
+            
+            final Texture tex = texture;
+            final int alpha = argb >>> 24;
+            float sScale = (s1 - s0) * tex.width / (x1 - x0);
+            float tScale = (t1 - t0) * tex.height / (y1 - y0);
+            float sBase = s0 * tex.width;
+            float tBase = t0 * tex.height;
+            
+            for(int py=Math.max(0, y0),pyEnd=Math.min(targetHeight, y1) ; py<pyEnd ; py++) {
+                int ty = Math.min(tex.height - 1, (int)(tBase + (py - y0 + 0.5f) * tScale));
+                int rowOffset = ty * tex.width;
+                for(int px=Math.max(0, x0),pxEnd=Math.min(targetWidth, x1) ; px<pxEnd ; px++) {
+                    int tx = Math.min(tex.width - 1, (int)(sBase + (px - x0 + 0.5f) * sScale));
+                    int texel = tex.data[rowOffset + tx] & 255;
+                    if(distanceField) {
+                        texel = (texel >= 128) ? 255 : 0;
+                    }
+                    blend(py*targetWidth + px, argb, texel * alpha / 255);
+                }
+            }
+        }
+    }
+}
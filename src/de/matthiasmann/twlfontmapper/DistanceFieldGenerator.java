@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts glyph coverage bitmaps into signed distance fields.
+ * 
+ * <p>The distance field is computed on the CPU with a two pass
+ * 8 neighbour sweep which propagates the nearest edge pixel. A value of
+ * 128 is exactly on the glyph outline, larger values are inside.</p>
+ * 
+ * @author Matthias Mann
+ */
+public final class DistanceFieldGenerator {
+    
+    private static final int FAR = 1 << 14;
+    
+    private int[] nearestX;
+    private int[] nearestY;
+    private int[] distSqr;
+    private float[] outside;
+    private boolean[] inside;
+
+    /**
+     * Computes the distance field of a coverage bitmap.
+     * 
+     * <p>The result has a border of {@code spread} pixels on each side and is
+     * {@code (srcWidth + 2*spread) * (srcHeight + 2*spread)} bytes. Distances
+     * of {@code spread} pixels or more are clamped.</p>
+     * 
+     * @param src the coverage bitmap starting at position 0, srcWidth bytes per row
+     * @param srcWidth the width of the bitmap
+     * @param srcHeight the height of the bitmap
+     * @param spread the maximum distance in pixels which is encoded
+     * @param dst receives the distance field at it's current position
+     */
+    public void generate(ByteBuffer src, int srcWidth, int srcHeight, int spread, ByteBuffer dst) {
+        if(spread <= 0) {
+            throw new IllegalArgumentException("spread");
+        }
+        final int w = srcWidth + 2*spread;
+        final int h = srcHeight + 2*spread;
+        final int size = w * h;
+        ensureCapacity(size);
+        
+        final boolean[] in = inside;
+        for(int i=0 ; i<size ; i++) {
+            in[i] = false;
+        }
+        for(int y=0 ; y<srcHeight ; y++) {
+            for(int x=0 ; x<srcWidth ; x++) {
+                in[(y+spread)*w + x+spread] = (src.get(y*srcWidth + x) & 255) >= 128;
+            }
+        }
+        
+        // distance of outside pixels to the nearest inside pixel
+        transform(w, h, true);
+        for(int i=0 ; i<size ; i++) {
+            outside[i] = (float)Math.sqrt(distSqr[i]);
+        }
+        // distance of inside pixels to the nearest outside pixel
+        transform(w, h, false);
+        
+        final float scale = 127.5f / spread;
+        int pos = dst.position();
+        for(int i=0 ; i<size ; i++) {
+            float dist;
+            if(in[i]) {
+                dist = (float)Math.sqrt(distSqr[i]) - 0.5f;
+            } else {
+                dist = 0.5f - outside[i];
+            }
+            int value = Math.round(127.5f + dist * scale);
+            dst.put(pos + i, (byte)Math.max(0, Math.min(255, value)));
+        }
+        dst.position(pos + size);
+    }
+    
+    private void transform(int w, int h, boolean target) {
+        final boolean[] in = inside;
+        final int[] nx = nearestX;
+        final int[] ny = nearestY;
+        final int[] dist = distSqr;
+        
+        for(int i=0,n=w*h ; i<n ; i++) {
+            if(in[i] == target) {
+                nx[i] = i % w;
+                ny[i] = i / w;
+                dist[i] = 0;
+            } else {
+                nx[i] = FAR;
+                ny[i] = FAR;
+                dist[i] = Integer.MAX_VALUE;
+            }
+        }
+        
+        for(int y=0 ; y<h ; y++) {
+            for(int x=0 ; x<w ; x++) {
+                if(x > 0) {
+                    propagate(w, x, y, x-1, y);
+                    if(y > 0) {
+                        propagate(w, x, y, x-1, y-1);
+                    }
+                }
+                if(y > 0) {
+                    propagate(w, x, y, x, y-1);
+                    if(x+1 < w) {
+                        propagate(w, x, y, x+1, y-1);
+                    }
+                }
+            }
+            for(int x=w-2 ; x>=0 ; x--) {
+                propagate(w, x, y, x+1, y);
+            }
+        }
+        
+        for(int y=h ; y-- > 0 ;) {
+            for(int x=w ; x-- > 0 ;) {
+                if(x+1 < w) {
+                    propagate(w, x, y, x+1, y);
+                    if(y+1 < h) {
+                        propagate(w, x, y, x+1, y+1);
+                    }
+                }
+                if(y+1 < h) {
+                    propagate(w, x, y, x, y+1);
+                    if(x > 0) {
+                        propagate(w, x, y, x-1, y+1);
+                    }
+                }
+            }
+            for(int x=1 ; x<w ; x++) {
+                propagate(w, x, y, x-1, y);
+            }
+        }
+    }
+    
+    private void propagate(int w, int x, int y, int fromX, int fromY) {
+        int from = fromY*w + fromX;
+        int px = nearestX[from];
+        if(px != FAR) {
+            int py = nearestY[from];
+            int dx = x - px;
+            int dy = y - py;
+            int d = dx*dx + dy*dy;
+            int idx = y*w + x;
+            if(d < distSqr[idx]) {
+                distSqr[idx] = d;
+                nearestX[idx] = px;
+                nearestY[idx] = py;
+            }
+        }
+    }
+    
+    private void ensureCapacity(int size) {
+        if(inside == null || inside.length < size) {
+            nearestX = new int[size];
+            nearestY = new int[size];
+            distSqr = new int[size];
+            outside = new float[size];
+            inside = new boolean[size];
+        }
+    }
+}
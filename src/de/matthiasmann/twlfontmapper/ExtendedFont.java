@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import de.matthiasmann.twl.HAlignment;
+import de.matthiasmann.twl.renderer.AnimationState;
+import de.matthiasmann.twl.renderer.Font;
+
+/**
+ * The drawing operations of the fonts created by {@link TWLFontMapper}
+ * which are not part of TWL's {@link Font} interface. All fonts returned
+ * by {@link TWLFontMapper#getFont} implement this interface.
+ * 
+ * @author Matthias Mann
+ */
+public interface ExtendedFont extends Font {
+    
+    /**
+     * Returns the font renderer which draws this font. It is shared by all
+     * fonts of the same font file and size.
+     * 
+     * @return the font renderer
+     */
+    public TTFFontRenderer getFontRenderer();
+    
+    /**
+     * Draws a word wrapped text with the font parameters of the given
+     * animation state.
+     * 
+     * @param as the animation state
+     * @param x the left edge of the text
+     * @param y the top edge of the first line
+     * @param text the wrapped text - must use the font renderer of this font
+     * @param align the horizontal alignment of the lines
+     * @return the number of lines
+     * @see TTFFontRenderer#drawWrappedText(int, int, de.matthiasmann.twlfontmapper.WrappedText, de.matthiasmann.twl.HAlignment) 
+     */
+    public int drawWrappedText(AnimationState as, int x, int y, WrappedText text, HAlignment align);
+    
+    /**
+     * Draws a text with differently colored and decorated runs using a
+     * single batch. Text outside of the runs is drawn with the color of the
+     * current font parameters.
+     * 
+     * @param as the animation state
+     * @param x the left edge of the text
+     * @param y the top edge of the text
+     * @param str the text
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @param runs the packed runs
+     * @param numRuns the number of runs
+     * @return the width of the text
+     * @see TTFFontRenderer#drawTextRuns(int, int, java.lang.CharSequence, int, int, int[], int) 
+     */
+    public int drawTextRuns(AnimationState as, int x, int y, CharSequence str, int start, int end, int[] runs, int numRuns);
+    
+    /**
+     * Computes the width of a number without creating a string.
+     * 
+     * @param value the number
+     * @return the width of the number
+     * @see TTFFontRenderer#computeNumberWidth(long) 
+     */
+    public int computeNumberWidth(int value);
+    
+    /**
+     * Computes the width of a number without creating a string.
+     * 
+     * @param value the number
+     * @return the width of the number
+     * @see TTFFontRenderer#computeNumberWidth(long) 
+     */
+    public int computeNumberWidth(long value);
+    
+    /**
+     * Computes the width of a fixed point number without creating a string.
+     * 
+     * @param value the number multiplied by 10^decimals
+     * @param decimals the number of digits after the decimal point
+     * @return the width of the number
+     * @see TTFFontRenderer#computeNumberWidth(long, int) 
+     */
+    public int computeNumberWidth(long value, int decimals);
+    
+    /**
+     * Draws a number without creating a string. This is meant for counters
+     * and timers which change every frame.
+     * 
+     * @param as the animation state
+     * @param x the left edge of the number
+     * @param y the top edge of the number
+     * @param value the number
+     * @return the width of the number
+     * @see TTFFontRenderer#drawNumber(int, int, long) 
+     */
+    public int drawNumber(AnimationState as, int x, int y, int value);
+    
+    /**
+     * Draws a number without creating a string. This is meant for counters
+     * and timers which change every frame.
+     * 
+     * @param as the animation state
+     * @param x the left edge of the number
+     * @param y the top edge of the number
+     * @param value the number
+     * @return the width of the number
+     * @see TTFFontRenderer#drawNumber(int, int, long) 
+     */
+    public int drawNumber(AnimationState as, int x, int y, long value);
+    
+    /**
+     * Draws a fixed point number without creating a string, eg a value of
+     * -1234 with 2 decimals is drawn as "-12.34".
+     * 
+     * @param as the animation state
+     * @param x the left edge of the number
+     * @param y the top edge of the number
+     * @param value the number multiplied by 10^decimals
+     * @param decimals the number of digits after the decimal point
+     * @return the width of the number
+     * @see TTFFontRenderer#drawNumber(int, int, long, int) 
+     */
+    public int drawNumber(AnimationState as, int x, int y, long value, int decimals);
+}
@@ -36,12 +36,23 @@ import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.zip.CRC32;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- *
+ * A loaded font file.
+ * 
+ * <p>Only the tables needed for the font metrics are parsed when the
+ * FontData is created. The FreeType face and the kerning index are created
+ * on the first glyph miss.</p>
+ * 
+ * <p>When no glyph was created for some time the face and the font file
+ * can be released with {@link #unloadIfIdle(long, long) }. They are
+ * loaded again from the font URL on the next glyph miss.</p>
+ * 
  * @author Matthias Mann
  */
 public final class FontData {
@@ -54,67 +65,309 @@ public final class FontData {
     public static final int NAME_POSTSCRIPT_NAME = 6;
     
     private final URL fontFile;
-    private final FreeTypeFont font;
-    private final IntMap<IntMap<Integer>> kerning;
+    private final String contentKey;
+    private ByteBuffer fontBuffer;
+    private FreeTypeFont font;
+    private long lastUsed;
+    private int[] kernPairs;
     private final String[] names;
-    private final ByteBuffer nameSection;
-    private final ByteBuffer kernSection;
+    private ByteBuffer kernSection;
+    private final boolean hasKerning;
+    
+    private final int unitsPerEm;
+    private final boolean integerPPEM;
+    private final int numGlyphs;
+    private final int ascender;
+    private final int descender;
+    private final int height;
+    private final int maxAdvance;
+    private final int underlinePosition;
+    private final int underlineThickness;
+    private final boolean fixedPitch;
+    private final boolean uniformAdvance;
 
     final HashMap<Integer, TTFFontRenderer> fontRenderers;
     
     public FontData(URL url) throws IOException {
-        InputStream is = url.openStream();
-        ByteBuffer bb;
-        try {
-            bb = FreeTypeFont.toByteBuffer(is);
-        } finally {
-            is.close();
-        }
+        ByteBuffer bb = readFontFile(url);
         
         this.fontFile = url;
-        this.font = FreeTypeFont.create(bb);
-        this.kerning = new IntMap<IntMap<Integer>>();
+        this.contentKey = computeContentKey(bb);
+        this.fontBuffer = bb;
+        this.lastUsed = System.nanoTime();
         this.fontRenderers = new HashMap<Integer, TTFFontRenderer>();
         
         bb.order(ByteOrder.BIG_ENDIAN);
         
-        nameSection = readSection(bb, "name");
         kernSection = readSectionOptional(bb, "kern");
+        hasKerning = kernSection != null;
 
-        names = readNAME(nameSection);
-
-        if(kernSection != null) {
-            readKERN(kernSection);
+        names = readNAME(readSection(bb, "name"));
+        
+        ByteBuffer head = readSection(bb, "head");
+        ByteBuffer hhea = readSection(bb, "hhea");
+        ByteBuffer maxp = readSection(bb, "maxp");
+        ByteBuffer post = readSectionOptional(bb, "post");
+        ByteBuffer os2  = readSectionOptional(bb, "OS/2");
+        
+        unitsPerEm = head.getChar(18);
+        if(unitsPerEm == 0) {
+            throw new IOException("Invalid unitsPerEm");
+        }
+        integerPPEM = (head.getChar(16) & 8) != 0;
+        numGlyphs = maxp.getChar(4);
+        maxAdvance = hhea.getChar(10);
+        
+        // select the vertical metrics the same way as FreeType
+        int asc = hhea.getShort(4);
+        int desc = hhea.getShort(6);
+        int lineGap = hhea.getShort(8);
+        // - OS/2 is only used when hhea has no ascender and descender
+        if(asc == 0 && desc == 0 && os2 != null && os2.limit() >= 78) {
+            asc = os2.getShort(68);
+            desc = os2.getShort(70);
+            lineGap = os2.getShort(72);
+            if(asc == 0 && desc == 0) {
+                asc = os2.getChar(74);
+                desc = -os2.getChar(76);
+                lineGap = 0;
+            }
+        }
+        ascender = asc;
+        descender = desc;
+        height = asc - desc + lineGap;
+        
+        if(post != null && post.limit() >= 12) {
+            underlinePosition = post.getShort(8);
+            underlineThickness = post.getShort(10);
+        } else {
+            underlinePosition = -unitsPerEm / 10;
+            underlineThickness = unitsPerEm / 20;
         }
+        
+        if(post != null && post.limit() >= 16) {
+            fixedPitch = post.getInt(12) != 0;
+        } else if(os2 != null && os2.limit() >= 42) {
+            // PANOSE family type "Latin Text" with proportion "Monospaced"
+            fixedPitch = os2.get(32) == 2 && os2.get(35) == 9;
+        } else {
+            fixedPitch = false;
+        }
+        
+        uniformAdvance = fixedPitch && checkUniformAdvance(bb, head, hhea);
     }
     
     public static String[] getFontName(URL url) throws IOException {
+        return getFontName(readFontFile(url));
+    }
+    
+    static String[] getFontName(ByteBuffer bb) throws IOException {
+        bb.order(ByteOrder.BIG_ENDIAN);
+        return readNAME(readSection(bb, "name"));
+    }
+    
+    static ByteBuffer readFontFile(URL url) throws IOException {
         InputStream is = url.openStream();
-        ByteBuffer bb;
         try {
-            bb = FreeTypeFont.toByteBuffer(is);
+            return FreeTypeFont.toByteBuffer(is);
         } finally {
             is.close();
         }
-        
-        bb.order(ByteOrder.BIG_ENDIAN);
-        return readNAME(readSection(bb, "name"));
+    }
+    
+    /**
+     * Computes a key which identifies the content of a font file. Fonts
+     * with the same key are treated as the same font regardless of the
+     * URL they were loaded from.
+     * 
+     * @param bb the complete font file
+     * @return the content key
+     */
+    static String computeContentKey(ByteBuffer bb) {
+        ByteBuffer data = bb.duplicate();
+        data.clear();
+        CRC32 crc = new CRC32();
+        byte[] tmp = new byte[8192];
+        while(data.hasRemaining()) {
+            int len = Math.min(tmp.length, data.remaining());
+            data.get(tmp, 0, len);
+            crc.update(tmp, 0, len);
+        }
+        return String.format("%08x-%d", crc.getValue(), data.capacity());
+    }
+    
+    static boolean isContentKey(String str) {
+        int idx = str.indexOf('-');
+        if(idx != 8 || idx + 1 == str.length()) {
+            return false;
+        }
+        for(int i=0 ; i<str.length() ; i++) {
+            char ch = str.charAt(i);
+            if(i < idx) {
+                if(Character.digit(ch, 16) < 0) {
+                    return false;
+                }
+            } else if(i > idx && (ch < '0' || ch > '9')) {
+                return false;
+            }
+        }
+        return true;
     }
     
     public String getName(int idx) {
         return names[idx];
     }
 
-    public FreeTypeFont getFont() {
+    /**
+     * Returns the FreeType face of this font. It is created on the first call.
+     * 
+     * @return the FreeType face
+     * @throws IOException if the face could not be created
+     */
+    public synchronized FreeTypeFont getFont() throws IOException {
+        if(font == null) {
+            if(fontBuffer == null) {
+                reloadFontFile();
+            }
+            fontBuffer.clear();
+            font = FreeTypeFont.create(fontBuffer);
+        }
+        lastUsed = System.nanoTime();
         return font;
     }
+    
+    private void reloadFontFile() throws IOException {
+        ByteBuffer bb = readFontFile(fontFile);
+        if(!contentKey.equals(computeContentKey(bb))) {
+            throw new IOException("Font file has changed: " + fontFile);
+        }
+        fontBuffer = bb;
+    }
+    
+    /**
+     * Releases the FreeType face and the font file if the face was not
+     * used for the given time. Glyph metrics and textures of the font
+     * renderers are not affected.
+     * 
+     * @param idleTime the idle time in nanoseconds
+     * @param now the current time from {@link System#nanoTime() }
+     * @return true if the font was unloaded
+     */
+    public synchronized boolean unloadIfIdle(long idleTime, long now) {
+        if(fontBuffer == null || now - lastUsed < idleTime) {
+            return false;
+        }
+        if(kernSection != null) {
+            // the kern table is a view of the font file
+            if(kernPairs == null) {
+                kernPairs = readKERN(kernSection);
+            }
+            kernSection = null;
+        }
+        destroy();
+        fontBuffer = null;
+        return true;
+    }
+    
+    /**
+     * Returns true if the FreeType face or the font file is in memory.
+     * @return true if the font is loaded
+     */
+    public synchronized boolean isLoaded() {
+        return fontBuffer != null;
+    }
+    
+    public int getNumGlyphs() {
+        return numGlyphs;
+    }
+    
+    /**
+     * Returns true if the font declares itself as fixed pitch (monospaced).
+     * This is read from the {@code post} table or from the PANOSE
+     * classification in the {@code OS/2} table.
+     * 
+     * <p>The flag does not guarantee that all glyphs have the same advance
+     * width - monospaced CJK fonts have double width ideographs and some
+     * fonts have zero width combining marks. See {@link #hasUniformAdvance() }.</p>
+     * 
+     * @return true if this is a fixed pitch (monospaced) font
+     */
+    public boolean isFixedPitch() {
+        return fixedPitch;
+    }
+    
+    /**
+     * Returns true if this is a fixed pitch font and all glyphs with an
+     * outline have the same advance width in the {@code hmtx} table. Empty
+     * glyphs like {@code .null} are ignored.
+     * 
+     * @return true if all visible glyphs have the same advance width
+     * @see #isFixedPitch() 
+     */
+    public boolean hasUniformAdvance() {
+        return uniformAdvance;
+    }
+    
+    /*
+     * The metrics for a pixel size are computed from the font header with
+     * the same rounding as FreeType uses for the size metrics. Values are
+     * first scaled to 26.6 fixed point.
+     */
+    
+    public int getAscent(int pixelSize) {
+        int value = scale(ascender, pixelSize);
+        return integerPPEM ? pixRound(value) : pixCeil(value);
+    }
+    
+    public int getDescent(int pixelSize) {
+        int value = scale(descender, pixelSize);
+        return -(integerPPEM ? pixRound(value) : pixFloor(value));
+    }
+    
+    public int getLineHeight(int pixelSize) {
+        return pixRound(scale(height, pixelSize));
+    }
+    
+    public int getMaxAdvance(int pixelSize) {
+        return pixRound(scale(maxAdvance, pixelSize));
+    }
+    
+    public int getUnderlinePosition(int pixelSize) {
+        return pixRound(scale(underlinePosition, pixelSize));
+    }
+    
+    public int getUnderlineThickness(int pixelSize) {
+        return Math.max(1, pixRound(scale(underlineThickness, pixelSize)));
+    }
+    
+    private int scale(int value, int pixelSize) {
+        long v = (long)value * pixelSize * 64;
+        int half = unitsPerEm / 2;
+        return (int)((v + ((v < 0) ? -half : half)) / unitsPerEm);
+    }
+    
+    private static int pixRound(int value) {
+        return (value + 32) >> 6;
+    }
+    
+    private static int pixCeil(int value) {
+        return (value + 63) >> 6;
+    }
+    
+    private static int pixFloor(int value) {
+        return value >> 6;
+    }
 
     public URL getFontFile() {
         return fontFile;
     }
+
+    public String getContentKey() {
+        return contentKey;
+    }
     
     public boolean hasRawKerning() {
-        return kernSection != null;
+        return hasKerning;
     }
     
     public TTFFontRenderer getFontRenderer(int fontSize) {
@@ -125,56 +378,57 @@ public final class FontData {
         return fontRenderers.put(fontSize, value);
     }
 
-    public void destroy() {
+    public synchronized void destroy() {
+        if(font == null) {
+            return;
+        }
         try {
             font.close();
+            font = null;
         } catch (IOException ex) {
             Logger.getLogger(FontData.class.getName()).log(Level.SEVERE, "Could not close FreeTypeFont", ex);
         }
     }
 
-    void readRawKerning(TTFFontRenderer fr, TTFFontRenderer.Glyph glyph) throws IOException {
-        int version = kernSection.getChar(0);
-        int nTables = kernSection.getChar(2);
-        //System.out.println("version="+version+" nTables="+nTables);
-
-        int tableOffset = 4;
-        for(int table=0 ; table<nTables ; table++) {
-            int tableLength = kernSection.getInt(tableOffset);
-            int coverage = kernSection.getChar(tableOffset + 4);
-            
-            if ((coverage & 3) == 1) {  // only horizontal
-                int format = coverage >> 8;
-                switch(format) {
-                    case 0: {
-                        int numPairs = kernSection.getChar(tableOffset + 6);
-                        int offset = tableOffset + 14;
-
-                        for(int pair=0 ; pair<numPairs ; pair++,offset+=6) {
-                            int from = kernSection.getChar(offset);
-                            if(from == glyph.glyphIndex) {
-                                int to = kernSection.getChar(offset + 2);
-                                fr.setRawKerning(glyph, to);
-                            }
-                        }
-                        break;
-                    }
-                    default:
-                        Logger.getLogger(FontData.class.getName()).log(Level.WARNING,
-                                "Unsupported kerning subtable format: {0} (kern table version: {1})",
-                                new Object[]{format, version});
-                }
+    byte[][] readRawKerning(TTFFontRenderer fr, int glyphIndex) throws IOException {
+        if(kernPairs == null) {
+            kernPairs = readKERN(kernSection);
+        }
+        
+        // the pairs are sorted by first glyph, find the first one of glyphIndex
+        final int[] pairs = kernPairs;
+        int idx = Arrays.binarySearch(pairs, (glyphIndex - 32768) << 16);
+        if(idx < 0) {
+            idx = -(idx + 1);
+        }
+        
+        byte[][] result = null;
+        for(; idx<pairs.length ; idx++) {
+            int pair = pairs[idx];
+            if((pair >> 16) + 32768 != glyphIndex) {
+                break;
             }
-
-            tableOffset += tableLength;
+            result = fr.setRawKerning(result, glyphIndex, pair & 0xFFFF);
         }
+        return result;
     }
     
-    private void readKERN(ByteBuffer kernSection) {
+    /**
+     * Builds the kerning index: all horizontal kerning pairs packed into
+     * one int each and sorted by the first glyph. The first glyph is biased
+     * so that the signed sort order matches the glyph index order.
+     * 
+     * @param kernSection the kern table
+     * @return the sorted pairs
+     */
+    private static int[] readKERN(ByteBuffer kernSection) {
         int version = kernSection.getChar(0);
         int nTables = kernSection.getChar(2);
         //System.out.println("version="+version+" nTables="+nTables);
 
+        int[] pairs = new int[0];
+        int numPairsTotal = 0;
+        
         int tableOffset = 4;
         for(int table=0 ; table<nTables ; table++) {
             int tableLength = kernSection.getInt(tableOffset);
@@ -186,13 +440,19 @@ public final class FontData {
                     case 0: {
                         int numPairs = kernSection.getChar(tableOffset + 6);
                         int offset = tableOffset + 14;
+                        
+                        if(numPairsTotal + numPairs > pairs.length) {
+                            int[] tmp = new int[numPairsTotal + numPairs];
+                            System.arraycopy(pairs, 0, tmp, 0, numPairsTotal);
+                            pairs = tmp;
+                        }
 
                         for(int pair=0 ; pair<numPairs ; pair++,offset+=6) {
                             int from = kernSection.getChar(offset);
                             int to   = kernSection.getChar(offset + 2);
                             int kpx  = kernSection.getChar(offset + 4);
                             if (kpx != 0) {
-                                addKerning(from, to, kpx);
+                                pairs[numPairsTotal++] = ((from - 32768) << 16) | to;
                             }
                         }
                         break;
@@ -206,15 +466,14 @@ public final class FontData {
 
             tableOffset += tableLength;
         }
-    }
-
-    private void addKerning(int fromGlyph, int toGlyph, int kpx) {
-        IntMap<Integer> adjTab = kerning.get(fromGlyph);
-        if (adjTab == null) {
-            adjTab = new IntMap<Integer>();
-            kerning.put(fromGlyph, adjTab);
+        
+        if(numPairsTotal < pairs.length) {
+            int[] tmp = new int[numPairsTotal];
+            System.arraycopy(pairs, 0, tmp, 0, numPairsTotal);
+            pairs = tmp;
         }
-        adjTab.put(toGlyph, kpx);
+        Arrays.sort(pairs);
+        return pairs;
     }
 
     private static ByteBuffer readSectionOptional(ByteBuffer bb, String sectionName) throws IOException {
@@ -246,6 +505,42 @@ public final class FontData {
         return null;
     }
 
+    /**
+     * Checks the advance width of all glyphs. Without a {@code loca} table
+     * (CFF outlines) every glyph must have the same advance.
+     */
+    private boolean checkUniformAdvance(ByteBuffer bb, ByteBuffer head, ByteBuffer hhea) throws IOException {
+        int numHMetrics = hhea.getChar(34);
+        ByteBuffer hmtx = readSectionOptional(bb, "hmtx");
+        if(hmtx == null || numHMetrics == 0 || hmtx.limit() < numHMetrics * 4) {
+            return false;
+        }
+        ByteBuffer loca = readSectionOptional(bb, "loca");
+        boolean longLoca = head.getShort(50) != 0;
+        if(loca != null && loca.limit() < (numGlyphs + 1) * (longLoca ? 4 : 2)) {
+            loca = null;
+        }
+        
+        int advance = -1;
+        for(int glyph=0 ; glyph<numGlyphs ; glyph++) {
+            if(loca != null) {
+                int length = longLoca
+                        ? loca.getInt(glyph*4 + 4) - loca.getInt(glyph*4)
+                        : loca.getChar(glyph*2 + 2) - loca.getChar(glyph*2);
+                if(length == 0) {
+                    continue;
+                }
+            }
+            int glyphAdvance = hmtx.getChar(Math.min(glyph, numHMetrics - 1) * 4);
+            if(advance < 0) {
+                advance = glyphAdvance;
+            } else if(advance != glyphAdvance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static ByteBuffer readSection(ByteBuffer bb, String sectionName) throws IOException {
         ByteBuffer section = readSectionOptional(bb, sectionName);
         if(section == null) {
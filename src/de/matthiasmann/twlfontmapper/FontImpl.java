@@ -31,38 +31,54 @@ package de.matthiasmann.twlfontmapper;
 
 import de.matthiasmann.twl.HAlignment;
 import de.matthiasmann.twl.renderer.AnimationState;
-import de.matthiasmann.twl.renderer.Font;
 import de.matthiasmann.twl.renderer.FontCache;
 import de.matthiasmann.twl.renderer.FontParameter;
 import de.matthiasmann.twl.utils.StateSelect;
-import org.lwjgl.opengl.GL11;
 
 /**
  *
  * @author Matthias Mann
  */
-class FontImpl implements Font {
+class FontImpl implements ExtendedFont {
     
     private final TTFFontRenderer font;
     private final StateSelect select;
     private final FontParameter[] fontParams;
+    private int refCount;
+    
+    TWLFontMapper mapper;
+    TWLFontMapper.FontKey key;
 
     FontImpl(TTFFontRenderer font, StateSelect select, FontParameter ... fontParams) {
         this.font = font;
         this.select = select;
         this.fontParams = fontParams;
+        this.refCount = 1;
+        font.acquire();
+    }
+
+    public TTFFontRenderer getFontRenderer() {
+        return font;
     }
 
     public FontCache cacheMultiLineText(FontCache prevCache, CharSequence str, int width, HAlignment align) {
-        return null;
+        FontCacheImpl cache = getCache(prevCache);
+        font.layoutMultiLineText(str, width, align, cache.layout);
+        cache.multiLine = true;
+        cache.width = width;
+        return cache;
     }
 
     public FontCache cacheText(FontCache prevCache, CharSequence str) {
-        return null;
+        return cacheText(prevCache, str, 0, str.length());
     }
 
     public FontCache cacheText(FontCache prevCache, CharSequence str, int start, int end) {
-        return null;
+        FontCacheImpl cache = getCache(prevCache);
+        font.layoutText(str, start, end, cache.layout);
+        cache.multiLine = false;
+        cache.width = cache.layout.getWidth();
+        return cache;
     }
 
     public int computeMultiLineTextWidth(CharSequence str) {
@@ -94,6 +110,26 @@ class FontImpl implements Font {
         return numLines;
     }
 
+    public int drawWrappedText(AnimationState as, int x, int y, WrappedText text, HAlignment align) {
+        FontParameter fontParam = evalFontParam(as);
+        int numLines = 0;
+        if(font.prepare(fontParam.get(FontParameter.COLOR))) {
+            try {
+                numLines = font.drawWrappedText(x, y, text, align);
+                if(fontParam.get(FontParameter.UNDERLINE) || fontParam.get(FontParameter.LINETHROUGH)) {
+                    for(int line=0 ; line<numLines ; line++) {
+                        int lineWidth = text.getLineWidth(line);
+                        int xoff = TTFFontRenderer.computeAlignOffset(text.getWidth(), lineWidth, align);
+                        drawLine(fontParam, x + xoff, y + line*font.lineHeight, lineWidth);
+                    }
+                }
+            } finally {
+                font.cleanup();
+            }
+        }
+        return numLines;
+    }
+
     public int drawText(AnimationState as, int x, int y, CharSequence str) {
         return drawText(as, x, y, str, 0, str.length());
     }
@@ -104,35 +140,85 @@ class FontImpl implements Font {
         if(font.prepare(fontParam.get(FontParameter.COLOR))) {
             try {
                 width = font.drawText(x, y, str, start, end);
+                drawLine(fontParam, x, y, width);
+            } finally {
+                font.cleanup();
+            }
+        }
+        return width;
+    }
+
+    public int computeNumberWidth(int value) {
+        return font.computeNumberWidth(value);
+    }
+
+    public int computeNumberWidth(long value) {
+        return font.computeNumberWidth(value);
+    }
+
+    public int computeNumberWidth(long value, int decimals) {
+        return font.computeNumberWidth(value, decimals);
+    }
+
+    public int drawNumber(AnimationState as, int x, int y, int value) {
+        return drawNumber(as, x, y, (long)value, 0);
+    }
+
+    public int drawNumber(AnimationState as, int x, int y, long value) {
+        return drawNumber(as, x, y, value, 0);
+    }
+
+    public int drawNumber(AnimationState as, int x, int y, long value, int decimals) {
+        FontParameter fontParam = evalFontParam(as);
+        int width = 0;
+        if(font.prepare(fontParam.get(FontParameter.COLOR))) {
+            try {
+                width = font.drawNumber(x, y, value, decimals);
+                drawLine(fontParam, x, y, width);
             } finally {
                 font.cleanup();
             }
         }
-        drawLine(fontParam, x, y, width);
         return width;
     }
 
+    public int drawTextRuns(AnimationState as, int x, int y, CharSequence str, int start, int end, int[] runs, int numRuns) {
+        FontParameter fontParam = evalFontParam(as);
+        int width = 0;
+        if(font.prepare(fontParam.get(FontParameter.COLOR))) {
+            try {
+                width = font.drawTextRuns(x, y, str, start, end, runs, numRuns);
+                drawLine(fontParam, x, y, width);
+            } finally {
+                font.cleanup();
+            }
+        }
+        return width;
+    }
+
+    void drawLayout(AnimationState as, int x, int y, FontCacheImpl cache) {
+        FontParameter fontParam = evalFontParam(as);
+        if(font.prepare(fontParam.get(FontParameter.COLOR))) {
+            try {
+                font.drawLayout(x, y, cache.layout);
+                if(!cache.multiLine) {
+                    drawLine(fontParam, x, y, cache.width);
+                }
+            } finally {
+                font.cleanup();
+            }
+        }
+    }
+
     void drawLine(FontParameter fontParam, int x, int y, int width) {
         if(fontParam.get(FontParameter.UNDERLINE)) {
-            drawLine(x, y+font.underlineOffset, x + width);
+            font.drawLine(x, y+font.underlineOffset, x + width);
         }
         if(fontParam.get(FontParameter.LINETHROUGH)) {
-            drawLine(x, y+font.lineHeight/2, x + width);
+            font.drawLine(x, y+font.lineHeight/2, x + width);
         }
     }
     
-    void drawLine(int x0, int y, int x1) {
-        int h = font.underlineThickness;
-        GL11.glDisable(GL11.GL_TEXTURE_2D);
-        GL11.glBegin(GL11.GL_QUADS);
-        GL11.glVertex2i(x0, y);
-        GL11.glVertex2i(x1, y);
-        GL11.glVertex2i(x1, y+h);
-        GL11.glVertex2i(x0, y+h);
-        GL11.glEnd();
-        GL11.glEnable(GL11.GL_TEXTURE_2D);
-    }
-
     public int getBaseLine() {
         return font.baseLine;
     }
@@ -142,7 +228,7 @@ class FontImpl implements Font {
     }
 
     public int getEX() {
-        return font.ex;
+        return font.getEx();
     }
 
     public int getLineHeight() {
@@ -150,15 +236,43 @@ class FontImpl implements Font {
     }
 
     public int getSpaceWidth() {
-        return font.spaceWidth;
+        return font.getSpaceWidth();
     }
 
     public boolean isProportional() {
         return font.proportional;
     }
 
+    /**
+     * Releases this font. The same instance is returned by
+     * {@link TWLFontMapper#getFont} for identical requests - the font
+     * renderer is only released after every user has destroyed it. It is
+     * shared with other fonts of the same size and is destroyed by the
+     * {@link TWLFontMapper} when it is no longer used.
+     */
     public void destroy() {
-        font.destroy();
+        if(refCount > 0 && --refCount == 0) {
+            font.release();
+            if(mapper != null) {
+                mapper.fontDestroyed(this);
+            }
+        }
+    }
+    
+    void acquire() {
+        if(refCount++ == 0) {
+            font.acquire();
+        }
+    }
+    
+    FontCacheImpl getCache(FontCache prevCache) {
+        if(prevCache instanceof FontCacheImpl) {
+            FontCacheImpl cache = (FontCacheImpl)prevCache;
+            if(cache.font == this) {
+                return cache;
+            }
+        }
+        return new FontCacheImpl(this);
     }
     
     FontParameter evalFontParam(AnimationState as) {
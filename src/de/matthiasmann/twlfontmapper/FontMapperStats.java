@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import java.util.ArrayList;
+
+/**
+ * The JMX view of the statistics of a font mapper. The counters are thread
+ * safe. The font renderers are only accessed by the render thread, so the
+ * memory usage and the font sizes are taken from a snapshot which is
+ * updated by {@link TWLFontMapper#nextFrame() }.
+ * 
+ * @author Matthias Mann
+ */
+class FontMapperStats implements FontMapperStatsMBean {
+    
+    /** the minimum time between two snapshots in nanoseconds */
+    private static final long UPDATE_INTERVAL = 500L * 1000000L;
+    
+    private final TWLFontMapper mapper;
+    private final FontStatistics statistics;
+    private volatile Snapshot snapshot;
+    private long lastUpdate;
+
+    FontMapperStats(TWLFontMapper mapper, FontStatistics statistics) {
+        this.mapper = mapper;
+        this.statistics = statistics;
+    }
+    
+    /**
+     * Takes a new snapshot of the font renderers when the last one is older
+     * than the update interval. Must be called from the render thread.
+     * 
+     * @param renderers the font renderers of the font mapper
+     * @param force true to take the snapshot independent of the interval
+     */
+    void update(Iterable<TTFFontRenderer> renderers, boolean force) {
+        long now = System.nanoTime();
+        if(!force && now - lastUpdate < UPDATE_INTERVAL) {
+            return;
+        }
+        lastUpdate = now;
+        
+        ArrayList<String> fontSizes = new ArrayList<String>();
+        for(TTFFontRenderer fr : renderers) {
+            fontSizes.add(String.format("%s size=%d memory=%d glyphs=%d rows=%d occupancy=%.2f",
+                    fr.getFontData().getFontFile(), fr.getFontSize(), fr.getMemoryUsage(),
+                    fr.getNumCreatedGlyphs(), fr.getAtlasRowCount(), fr.getAtlasOccupancy()));
+        }
+        snapshot = new Snapshot(mapper.getMemoryUsage(),
+                fontSizes.toArray(new String[fontSizes.size()]));
+    }
+
+    public long getGlyphLookups() {
+        return statistics.getGlyphLookups();
+    }
+
+    public long getGlyphMisses() {
+        return statistics.getGlyphMisses();
+    }
+
+    public long getRasterizeTimeNanos() {
+        return statistics.getRasterizeTime();
+    }
+
+    public long getKerningTimeNanos() {
+        return statistics.getKerningTime();
+    }
+
+    public long getUploadBytes() {
+        return statistics.getUploadBytes();
+    }
+
+    public long getUploadCalls() {
+        return statistics.getUploadCalls();
+    }
+
+    public long getBatches() {
+        return statistics.getBatches();
+    }
+
+    public int getBatchesPerFrame() {
+        return mapper.getBatchesPerFrame();
+    }
+
+    public long getAtlasFlushes() {
+        return statistics.getAtlasFlushes();
+    }
+
+    public long getEvictions() {
+        return statistics.getEvictions();
+    }
+
+    public long getMemoryUsage() {
+        return snapshot.memoryUsage;
+    }
+
+    public String[] getFontSizes() {
+        return snapshot.fontSizes.clone();
+    }
+
+    public void reset() {
+        statistics.reset();
+    }
+    
+    static final class Snapshot {
+        final long memoryUsage;
+        final String[] fontSizes;
+
+        Snapshot(long memoryUsage, String[] fontSizes) {
+            this.memoryUsage = memoryUsage;
+            this.fontSizes = fontSizes;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+/**
+ * The JMX interface of the font mapper statistics.
+ * 
+ * @author Matthias Mann
+ * @see TWLFontMapper#registerMBean(java.lang.String) 
+ */
+public interface FontMapperStatsMBean {
+    
+    public long getGlyphLookups();
+    
+    public long getGlyphMisses();
+    
+    public long getRasterizeTimeNanos();
+    
+    public long getKerningTimeNanos();
+    
+    public long getUploadBytes();
+    
+    public long getUploadCalls();
+    
+    public long getBatches();
+    
+    /**
+     * Returns the number of vertex batches which were flushed in the last
+     * frame.
+     * @return the number of batches of the last frame
+     * @see TWLFontMapper#getBatchesPerFrame() 
+     */
+    public int getBatchesPerFrame();
+    
+    public long getAtlasFlushes();
+    
+    public long getEvictions();
+    
+    /**
+     * Returns the estimated memory usage. The value is taken by
+     * {@link TWLFontMapper#nextFrame() } at most twice per second.
+     * @return the estimated memory usage in bytes
+     */
+    public long getMemoryUsage();
+    
+    /**
+     * Returns one entry per font size with the font, the size, the estimated
+     * memory usage and the number of glyphs and texture rows. The entries are
+     * taken by {@link TWLFontMapper#nextFrame() } at most twice per second.
+     * @return the font size entries
+     */
+    public String[] getFontSizes();
+    
+    public void reset();
+}
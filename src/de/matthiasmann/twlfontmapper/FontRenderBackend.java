@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import de.matthiasmann.twl.Color;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * The interface between the font renderers and the graphics API. It covers
+ * the glyph textures, the submission of glyph quads and drawing of
+ * underline and line through.
+ * 
+ * @author Matthias Mann
+ * @see LWJGLFontRenderBackend
+ * @see CPUFontRenderBackend
+ */
+public interface FontRenderBackend {
+    
+    /**
+     * Creates an alpha texture for glyph bitmaps.
+     * 
+     * @param width the requested width
+     * @param height the requested height
+     * @param linearFilter true if the texture is scaled and needs filtering
+     * @return the texture
+     */
+    public AtlasTexture createTexture(int width, int height, boolean linearFilter);
+    
+    /**
+     * Creates a vertex buffer for glyph quads.
+     * 
+     * @param maxQuads the number of quads the buffer can hold
+     * @return the quad batch
+     */
+    public QuadBatch createQuadBatch(int maxQuads);
+    
+    public interface AtlasTexture {
+        /**
+         * Returns the width of the texture. Can be larger than requested.
+         * @return the width of the texture
+         */
+        public int getTexWidth();
+        
+        /**
+         * Returns the height of the texture. Can be larger than requested.
+         * @return the height of the texture
+         */
+        public int getTexHeight();
+        
+        /**
+         * Copies an 8 bit alpha bitmap into the texture. Is called while
+         * a quad batch is active for this texture.
+         * 
+         * @param x the left edge in texels
+         * @param y the top edge in texels
+         * @param width the width of the bitmap
+         * @param height the height of the bitmap
+         * @param data the bitmap - width * height bytes
+         */
+        public void upload(int x, int y, int width, int height, ByteBuffer data);
+        
+        public void destroy();
+    }
+    
+    public interface QuadBatch {
+        /**
+         * Returns the vertex buffer. Each vertex has the 4 floats
+         * s, t, x and y - 4 vertices form a quad.
+         * @return the vertex buffer
+         */
+        public FloatBuffer getVertices();
+        
+        /**
+         * Changes the number of quads the vertex buffer can hold. Must not be
+         * called between {@link #begin} and {@link #end()}. The vertex buffer
+         * must be obtained again with {@link #getVertices() } afterwards.
+         * 
+         * @param maxQuads the new number of quads
+         */
+        public void setCapacity(int maxQuads);
+        
+        /**
+         * Starts drawing glyphs from the given texture.
+         * 
+         * @param texture the texture
+         * @param color the text color
+         * @param distanceField true if the texture contains distance fields
+         * @return false if nothing should be drawn, eg because the color is transparent
+         */
+        public boolean begin(AtlasTexture texture, Color color, boolean distanceField);
+        
+        /**
+         * Changes the color of the following quads. Quads which are already
+         * in the vertex buffer keep their color, so this does not require a
+         * flush. The color passed to {@link #begin} is modulated by the
+         * renderer's tint - the same is done for this color.
+         * 
+         * @param argb the color in ARGB format
+         */
+        public void setColor(int argb);
+        
+        /**
+         * Draws all quads in the vertex buffer and clears it.
+         */
+        public void flush();
+        
+        /**
+         * Flushes the vertex buffer and ends drawing.
+         */
+        public void end();
+        
+        /**
+         * Releases the vertex buffer.
+         */
+        public void destroy();
+    }
+}
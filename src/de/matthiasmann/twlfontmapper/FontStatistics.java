@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters for the glyph cache, the glyph textures and the draw batching.
+ * 
+ * <p>The counters are striped by thread so that measuring text on several
+ * threads does not contend on a single cache line. Reading a counter sums
+ * all stripes, the result is exact when no thread updates it concurrently.</p>
+ * 
+ * <p>Each font renderer has its own statistics which also add to the
+ * statistics of the font mapper that created it.</p>
+ * 
+ * @author Matthias Mann
+ */
+public final class FontStatistics {
+    
+    static final int GLYPH_LOOKUPS   = 0;
+    static final int GLYPH_MISSES    = 1;
+    static final int RASTERIZE_NANOS = 2;
+    static final int KERNING_NANOS   = 3;
+    static final int UPLOAD_BYTES    = 4;
+    static final int UPLOAD_CALLS    = 5;
+    static final int BATCHES         = 6;
+    static final int ATLAS_FLUSHES   = 7;
+    static final int EVICTIONS       = 8;
+    
+    private static final int NUM_COUNTERS = 9;
+    
+    /** one stripe uses 2 cache lines of 64 bytes to prevent false sharing */
+    private static final int STRIPE_SIZE = 16;
+    private static final int NUM_STRIPES = numStripes();
+    
+    private final AtomicLongArray cells;
+    FontStatistics parent;
+
+    public FontStatistics() {
+        assert NUM_COUNTERS <= STRIPE_SIZE;
+        this.cells = new AtomicLongArray(NUM_STRIPES * STRIPE_SIZE);
+    }
+    
+    /**
+     * Returns the number of glyph lookups. Lookups are counted per
+     * character of measured or drawn text.
+     * @return the number of glyph lookups
+     */
+    public long getGlyphLookups() {
+        return get(GLYPH_LOOKUPS);
+    }
+    
+    /**
+     * Returns the number of code points which were not yet in the glyph table.
+     * @return the number of glyph misses
+     */
+    public long getGlyphMisses() {
+        return get(GLYPH_MISSES);
+    }
+    
+    /**
+     * Returns the time spent in FreeType for loading glyph metrics and
+     * rasterizing glyph bitmaps including distance field generation.
+     * @return the time in nanoseconds
+     */
+    public long getRasterizeTime() {
+        return get(RASTERIZE_NANOS);
+    }
+    
+    /**
+     * Returns the time spent on building the kerning tables of glyphs.
+     * @return the time in nanoseconds
+     */
+    public long getKerningTime() {
+        return get(KERNING_NANOS);
+    }
+    
+    public long getUploadBytes() {
+        return get(UPLOAD_BYTES);
+    }
+    
+    public long getUploadCalls() {
+        return get(UPLOAD_CALLS);
+    }
+    
+    /**
+     * Returns the number of vertex batches which have been drawn.
+     * @return the number of vertex batches
+     */
+    public long getBatches() {
+        return get(BATCHES);
+    }
+    
+    /**
+     * Returns how often a full glyph texture was cleared.
+     * @return the number of atlas flushes
+     */
+    public long getAtlasFlushes() {
+        return get(ATLAS_FLUSHES);
+    }
+    
+    /**
+     * Returns the number of font renderers destroyed to stay in the memory budget.
+     * @return the number of evicted font renderers
+     */
+    public long getEvictions() {
+        return get(EVICTIONS);
+    }
+    
+    /**
+     * Resets all counters to 0. Concurrent updates may be lost.
+     */
+    public void reset() {
+        for(int i=0,n=cells.length() ; i<n ; i++) {
+            cells.set(i, 0);
+        }
+    }
+    
+    void add(int counter, long value) {
+        int stripe = (int)Thread.currentThread().getId() & (NUM_STRIPES - 1);
+        cells.addAndGet(stripe * STRIPE_SIZE + counter, value);
+        if(parent != null) {
+            parent.add(counter, value);
+        }
+    }
+    
+    void increment(int counter) {
+        add(counter, 1);
+    }
+    
+    private long get(int counter) {
+        long sum = 0;
+        for(int i=counter,n=cells.length() ; i<n ; i+=STRIPE_SIZE) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+    
+    private static int numStripes() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int stripes = 1;
+        while(stripes < cpus && stripes < 64) {
+            stripes *= 2;
+        }
+        return stripes;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * A texture which stores glyph bitmaps in rows. It can be shared by several
+ * font renderers - when it is full all users are notified to invalidate
+ * their glyphs.
+ * 
+ * <p>The texture is created on the first upload or bind so that font
+ * renderers which are only used to measure text don't need a texture.</p>
+ * 
+ * @author Matthias Mann
+ */
+class GlyphAtlas {
+    
+    private static final int SOLID_SIZE = 4;
+    
+    private final FontRenderBackend backend;
+    private final int width;
+    private final int height;
+    private final boolean linearFilter;
+    private final boolean shared;
+    private final ArrayList<Row> rows;
+    private final ArrayList<TTFFontRenderer> users;
+    private final TTFFontRenderer.Glyph solid;
+    
+    private FontRenderBackend.AtlasTexture texture;
+    private float texWidthScale;
+    private float texHeightScale;
+    private int y;
+    private long usedArea;
+    private long deadArea;
+    
+    /** counts the flushes of this texture - set by the owner */
+    FontStatistics statistics;
+    /** the font renderer whose batch is active for this texture */
+    TTFFontRenderer activeRenderer;
+    /** the current color of the active batch */
+    int activeColor;
+
+    GlyphAtlas(FontRenderBackend backend, int width, int height, boolean linearFilter, boolean shared) {
+        this.backend = backend;
+        this.width = width;
+        this.height = height;
+        this.linearFilter = linearFilter;
+        this.shared = shared;
+        this.rows = new ArrayList<Row>();
+        this.users = new ArrayList<TTFFontRenderer>();
+        this.solid = new TTFFontRenderer.Glyph(0, SOLID_SIZE, SOLID_SIZE, 0, 0, 0, null, null);
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    boolean isLinearFilter() {
+        return linearFilter;
+    }
+    
+    /**
+     * Returns true if the texture is shared by the font renderers of a font
+     * mapper. Its memory is then not counted by the font renderers.
+     * @return true if the texture is shared by the font mapper
+     */
+    boolean isShared() {
+        return shared;
+    }
+    
+    /**
+     * Returns the size of the texture in bytes
+     * @return the size of the texture in bytes or 0 if no texture was created yet
+     */
+    long getMemoryUsage() {
+        FontRenderBackend.AtlasTexture t = texture;
+        return (t != null) ? (long)t.getTexWidth() * t.getTexHeight() : 0;
+    }
+    
+    int getRowCount() {
+        return rows.size();
+    }
+    
+    /**
+     * Returns the fraction of the texture which is covered by glyphs.
+     * @return the occupancy between 0 and 1
+     */
+    float getOccupancy() {
+        return usedArea / ((float)width * height);
+    }
+    
+    void addUser(TTFFontRenderer fr) {
+        users.add(fr);
+    }
+    
+    /**
+     * Removes a user - the texture is destroyed when the last user is removed.
+     * The area used by the glyphs of the font renderer stays allocated until
+     * the texture is flushed or reclaimed.
+     * 
+     * @param fr the font renderer
+     * @see #reclaim() 
+     */
+    void removeUser(TTFFontRenderer fr) {
+        users.remove(fr);
+        if(users.isEmpty()) {
+            destroy();
+        } else {
+            deadArea += fr.atlasArea;
+        }
+    }
+    
+    /**
+     * Destroys the texture when more than half of the glyph area belongs to
+     * removed users. The remaining users upload their glyphs again when they
+     * are drawn, so that the new texture only contains glyphs which are in use.
+     * 
+     * @return true if the texture was destroyed
+     */
+    boolean reclaim() {
+        if(texture == null || activeRenderer != null || deadArea * 2 <= usedArea) {
+            return false;
+        }
+        flush();
+        texture.destroy();
+        texture = null;
+        return true;
+    }
+    
+    /**
+     * Allocates space for the glyph and uploads it's bitmap. Must be called
+     * while a quad batch is active for the texture.
+     * 
+     * @param g the glyph
+     * @param data the glyph bitmap - g.width * g.height bytes
+     */
+    void upload(TTFFontRenderer.Glyph g, ByteBuffer data) {
+        getTexture();
+        Row row = findRow(g.width, g.height);
+        texture.upload(row.x, row.y, g.width, g.height, data);
+        g.set(row.x, row.y, texWidthScale, texHeightScale);
+        row.x += g.width;
+        usedArea += g.width * g.height;
+    }
+    
+    /**
+     * Returns a glyph whose texture coordinates all point into a block of
+     * solid texels. It is used to draw underlines and other rectangles with
+     * the glyph batch. The block is uploaded on the first call and again
+     * after the texture was flushed. Must be called while a quad batch is
+     * active for the texture.
+     * 
+     * @return the solid glyph
+     */
+    TTFFontRenderer.Glyph getSolid() {
+        if(!solid.uploaded) {
+            ByteBuffer data = ByteBuffer.allocateDirect(SOLID_SIZE * SOLID_SIZE);
+            while(data.hasRemaining()) {
+                data.put((byte)255);
+            }
+            data.flip();
+            upload(solid, data);
+            // sample the center of the block so that filtering can't
+            // reach the neighbouring glyphs
+            solid.tx0 = solid.tx1 = (solid.tx0 + solid.tx1) * 0.5f;
+            solid.ty0 = solid.ty1 = (solid.ty0 + solid.ty1) * 0.5f;
+        }
+        return solid;
+    }
+    
+    void destroy() {
+        if(texture != null) {
+            texture.destroy();
+            texture = null;
+        }
+        solid.uploaded = false;
+        rows.clear();
+        y = 0;
+        usedArea = 0;
+        deadArea = 0;
+    }
+    
+    FontRenderBackend.AtlasTexture getTexture() {
+        if(texture == null) {
+            texture = backend.createTexture(width, height, linearFilter);
+            texWidthScale = 1.0f / texture.getTexWidth();
+            texHeightScale = 1.0f / texture.getTexHeight();
+        }
+        return texture;
+    }
+    
+    private Row findRow(int width, int height) {
+        // align row height to reduce the number of similar sized rows
+        height = (height + 3) & -4;
+        
+        int end = this.width - width;
+        Row bestRow = null;
+        for(int i=0 ; i<rows.size() ; i++) {
+            Row row = rows.get(i);
+            if(row.height >= height && row.height < height*2 && row.x <= end) {
+                if(bestRow == null || row.height < bestRow.height) {
+                    bestRow = row;
+                }
+            }
+        }
+        if(bestRow != null) {
+            return bestRow;
+        }
+        return newRow(height);
+    }
+    
+    private Row newRow(int height) {
+        if(this.height - y < height) {
+            flush();
+        }
+        
+        Row row = new Row(y, height);
+        y += height;
+        rows.add(row);
+        return row;
+    }
+    
+    private void flush() {
+        if(statistics != null) {
+            statistics.increment(FontStatistics.ATLAS_FLUSHES);
+        }
+        for(int i=0,n=users.size() ; i<n ; i++) {
+            users.get(i).atlasFlushed();
+        }
+        rows.clear();
+        y = 0;
+        usedArea = 0;
+        deadArea = 0;
+        solid.uploaded = false;
+    }
+    
+    static class Row {
+        final int y;
+        final int height;
+        int x;
+
+        Row(int y, int height) {
+            this.y = y;
+            this.height = height;
+        }
+    }
+}
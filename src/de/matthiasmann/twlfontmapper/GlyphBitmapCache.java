@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A CPU side cache of rasterized glyph bitmaps. The bitmaps are run length
+ * encoded, the cache is bounded by a byte budget and evicts the least
+ * recently used bitmap.
+ * 
+ * <p>When a glyph texture is flushed its glyphs are uploaded again from
+ * this cache instead of being rasterized by FreeType. This makes texture
+ * churn cheap for fonts with many glyphs in use, eg CJK text.</p>
+ * 
+ * <p>The cache can be shared by several font renderers. It must only be
+ * used from the render thread.</p>
+ * 
+ * @author Matthias Mann
+ * @see TWLFontMapper#setGlyphBitmapCacheSize(long) 
+ * @see TTFFontRenderer#setGlyphBitmapCache(de.matthiasmann.twlfontmapper.GlyphBitmapCache) 
+ */
+public final class GlyphBitmapCache {
+    
+    /** estimated size of an entry without the encoded data */
+    private static final int ENTRY_OVERHEAD = 48;
+    /** the longest run which can be stored in one control byte */
+    private static final int MAX_RUN = 128;
+    
+    private final long budget;
+    private final Entry head;
+    private byte[] scratch;
+    private long memoryUsage;
+    private long uncompressedSize;
+    private int numEntries;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a new glyph bitmap cache.
+     * 
+     * @param budget the maximum memory usage in bytes
+     */
+    public GlyphBitmapCache(long budget) {
+        if(budget <= 0) {
+            throw new IllegalArgumentException("budget");
+        }
+        this.budget = budget;
+        this.head = new Entry(null, null, 0);
+        head.prev = head;
+        head.next = head;
+        this.scratch = new byte[4096];
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+    
+    /**
+     * Returns the memory used by the cached bitmaps including an estimate
+     * for the per glyph overhead.
+     * @return the memory usage in bytes
+     */
+    public long getMemoryUsage() {
+        return memoryUsage;
+    }
+    
+    /**
+     * Returns the size of the cached bitmaps before compression.
+     * @return the uncompressed size in bytes
+     */
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
+    
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+    
+    /**
+     * Returns the fraction of lookups which found the bitmap in the cache.
+     * @return the hit rate between 0 and 1 or 0 if there were no lookups
+     */
+    public float getHitRate() {
+        long lookups = hits + misses;
+        return (lookups > 0) ? hits / (float)lookups : 0;
+    }
+    
+    /**
+     * Resets the hit and miss counters to 0.
+     */
+    public void resetStatistics() {
+        hits = 0;
+        misses = 0;
+    }
+    
+    /**
+     * Removes all bitmaps from the cache.
+     */
+    public void clear() {
+        for(Entry e=head.next ; e!=head ; e=e.next) {
+            e.glyph.cachedBitmap = null;
+        }
+        head.prev = head;
+        head.next = head;
+        memoryUsage = 0;
+        uncompressedSize = 0;
+        numEntries = 0;
+    }
+    
+    /**
+     * Decodes the cached bitmap of the glyph into the buffer.
+     * 
+     * @param g the glyph
+     * @param dst the target buffer - must have room for g.width * g.height bytes
+     * @return true if the bitmap was in the cache
+     */
+    boolean get(TTFFontRenderer.Glyph g, ByteBuffer dst) {
+        Entry e = g.cachedBitmap;
+        if(e == null || e.cache != this) {
+            misses++;
+            return false;
+        }
+        hits++;
+        unlink(e);
+        linkFirst(e);
+        
+        final byte[] data = e.data;
+        final int size = e.size;
+        final byte[] tmp = getScratch(size);
+        int pos = 0;
+        for(int i=0 ; i<data.length ;) {
+            int n = data[i++];
+            if(n >= 0) {
+                System.arraycopy(data, i, tmp, pos, n+1);
+                i += n+1;
+                pos += n+1;
+            } else {
+                byte value = data[i++];
+                for(int end=pos+1-n ; pos<end ; pos++) {
+                    tmp[pos] = value;
+                }
+            }
+        }
+        assert pos == size;
+        dst.put(tmp, 0, size);
+        return true;
+    }
+    
+    /**
+     * Stores the bitmap of a glyph in the cache. Least recently used bitmaps
+     * are evicted to stay in the budget.
+     * 
+     * @param g the glyph
+     * @param src the bitmap - g.width * g.height bytes starting at the position.
+     *            The position is not changed.
+     */
+    void put(TTFFontRenderer.Glyph g, ByteBuffer src) {
+        final int size = g.width * g.height;
+        if(size <= 0 || src.remaining() < size) {
+            return;
+        }
+        remove(g);
+        
+        final byte[] tmp = getScratch(size + size / MAX_RUN + 2);
+        final int base = src.position();
+        int len = 0;
+        int literal = -1;
+        for(int i=0 ; i<size ;) {
+            byte value = src.get(base + i);
+            int run = 1;
+            while(run < MAX_RUN && i+run < size && src.get(base + i + run) == value) {
+                run++;
+            }
+            if(run > 2 || (run == 2 && literal < 0)) {
+                tmp[len++] = (byte)(1 - run);
+                tmp[len++] = value;
+                literal = -1;
+            } else {
+                for(int j=0 ; j<run ; j++) {
+                    if(literal < 0 || tmp[literal] == MAX_RUN-1) {
+                        literal = len++;
+                        tmp[literal] = -1;
+                    }
+                    tmp[literal]++;
+                    tmp[len++] = value;
+                }
+            }
+            i += run;
+        }
+        
+        long entrySize = len + ENTRY_OVERHEAD;
+        if(entrySize > budget) {
+            return;
+        }
+        while(memoryUsage + entrySize > budget) {
+            remove(head.prev.glyph);
+        }
+        
+        byte[] data = new byte[len];
+        System.arraycopy(tmp, 0, data, 0, len);
+        Entry e = new Entry(this, g, size);
+        e.data = data;
+        g.cachedBitmap = e;
+        linkFirst(e);
+        memoryUsage += entrySize;
+        uncompressedSize += size;
+        numEntries++;
+    }
+    
+    /**
+     * Removes the bitmap of the glyph from the cache.
+     * @param g the glyph
+     */
+    void remove(TTFFontRenderer.Glyph g) {
+        Entry e = g.cachedBitmap;
+        if(e != null && e.cache == this) {
+            unlink(e);
+            g.cachedBitmap = null;
+            memoryUsage -= e.data.length + ENTRY_OVERHEAD;
+            uncompressedSize -= e.size;
+            numEntries--;
+        }
+    }
+    
+    private byte[] getScratch(int size) {
+        if(scratch.length < size) {
+            scratch = new byte[Math.max(size, scratch.length * 2)];
+        }
+        return scratch;
+    }
+    
+    private void linkFirst(Entry e) {
+        e.prev = head;
+        e.next = head.next;
+        head.next.prev = e;
+        head.next = e;
+    }
+    
+    private static void unlink(Entry e) {
+        e.prev.next = e.next;
+        e.next.prev = e.prev;
+        e.prev = null;
+        e.next = null;
+    }
+    
+    /**
+     * A cached bitmap. The data is a sequence of packets which start with a
+     * control byte n: for n &gt;= 0 the next n+1 bytes are copied, otherwise
+     * the next byte is repeated 1-n times.
+     */
+    static final class Entry {
+        final GlyphBitmapCache cache;
+        final TTFFontRenderer.Glyph glyph;
+        final int size;
+        byte[] data;
+        Entry prev;
+        Entry next;
+
+        Entry(GlyphBitmapCache cache, TTFFontRenderer.Glyph glyph, int size) {
+            this.cache = cache;
+            this.glyph = glyph;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+import de.matthiasmann.twl.Color;
+import de.matthiasmann.twl.renderer.lwjgl.LWJGLRenderer;
+import de.matthiasmann.twl.renderer.lwjgl.LWJGLTexture;
+import de.matthiasmann.twl.renderer.lwjgl.VertexArray;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GLContext;
+
+/**
+ * The default backend which draws with OpenGL using the textures and
+ * vertex arrays of the TWL LWJGL renderer.
+ * 
+ * <p>In streaming mode the quads are submitted through vertex buffer
+ * objects which are orphaned on every flush, so the driver does not have
+ * to wait until the previous draw has finished reading the buffer. This
+ * requires OpenGL 1.5 - without it the client side vertex arrays are used.</p>
+ * 
+ * @author Matthias Mann
+ */
+public class LWJGLFontRenderBackend implements FontRenderBackend {
+    
+    private final LWJGLRenderer renderer;
+    private final boolean streaming;
+
+    public LWJGLFontRenderBackend(LWJGLRenderer renderer) {
+        this(renderer, false);
+    }
+
+    /**
+     * Creates a backend for the given renderer.
+     * 
+     * @param renderer the TWL renderer
+     * @param streaming true to submit quads with vertex buffer objects
+     */
+    public LWJGLFontRenderBackend(LWJGLRenderer renderer, boolean streaming) {
+        this.renderer = renderer;
+        this.streaming = streaming;
+    }
+
+    public LWJGLRenderer getRenderer() {
+        return renderer;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public AtlasTexture createTexture(int width, int height, boolean linearFilter) {
+        // use NEAREST to prevent reading neighbour texels (there is no gap and possible garbage around glyphs)
+        return new Texture(new LWJGLTexture(renderer, width, height, null, LWJGLTexture.Format.ALPHA,
+                linearFilter ? LWJGLTexture.Filter.LINEAR : LWJGLTexture.Filter.NEAREST));
+    }
+
+    public QuadBatch createQuadBatch(int maxQuads) {
+        return new Batch(maxQuads, streaming && GLContext.getCapabilities().OpenGL15);
+    }
+
+    static class Texture implements AtlasTexture {
+        final LWJGLTexture texture;
+
+        Texture(LWJGLTexture texture) {
+            this.texture = texture;
+        }
+
+        public int getTexWidth() {
+            return texture.getTexWidth();
+        }
+
+        public int getTexHeight() {
+            return texture.getTexHeight();
+        }
+
+        public void upload(int x, int y, int width, int height, ByteBuffer data) {
+            GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, x, y, width, height, GL11.GL_ALPHA, GL11.GL_UNSIGNED_BYTE, data);
+        }
+
+        public void destroy() {
+            texture.destroy();
+        }
+    }
+    
+    static class Batch implements QuadBatch {
+        private final VertexArray vertexArray;
+        private final FloatBuffer tint;
+        private FloatBuffer vertices;
+        private ByteBuffer colors;
+        private int vbo;
+        private int colorVbo;
+        private Texture texture;
+        private boolean distanceField;
+        private int argb;
+        private int colorStart;
+        private boolean colored;
+
+        Batch(int maxQuads, boolean useVBO) {
+            this.tint = BufferUtils.createFloatBuffer(16);
+            if(useVBO) {
+                this.vertexArray = null;
+                this.vbo = GL15.glGenBuffers();
+                this.colorVbo = GL15.glGenBuffers();
+            } else {
+                this.vertexArray = new VertexArray();
+            }
+            setCapacity(maxQuads);
+        }
+
+        public FloatBuffer getVertices() {
+            return vertices;
+        }
+
+        public void setCapacity(int maxQuads) {
+            if(vertexArray != null) {
+                vertices = vertexArray.allocate(maxQuads);
+            } else {
+                vertices = BufferUtils.createFloatBuffer(maxQuads * 16);
+            }
+            colors = BufferUtils.createByteBuffer(maxQuads * 4 * 4);
+        }
+
+        public boolean begin(AtlasTexture texture, Color color, boolean distanceField) {
+            if(((Texture)texture).texture.bind(color)) {
+                if(distanceField) {
+                    // without shaders the distance field is thresholded by the alpha test
+                    GL11.glEnable(GL11.GL_ALPHA_TEST);
+                    GL11.glAlphaFunc(GL11.GL_GEQUAL, 0.5f * color.getAlpha() / 255f);
+                }
+                this.texture = (Texture)texture;
+                this.distanceField = distanceField;
+                this.argb = color.toARGB();
+                this.colored = false;
+                this.colorStart = 0;
+                if(vertexArray != null) {
+                    vertexArray.bind();
+                } else {
+                    GL11.glEnableClientState(GL11.GL_VERTEX_ARRAY);
+                    GL11.glEnableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        public void setColor(int argb) {
+            if(this.argb != argb) {
+                if(!colored) {
+                    // switch to a color array with the first color change - the
+                    // vertex colors are modulated with the renderer's tint
+                    // which is set as current color by binding with white
+                    texture.texture.bind(Color.WHITE);
+                    GL11.glGetFloat(GL11.GL_CURRENT_COLOR, tint);
+                    colored = true;
+                }
+                fillColors();
+                this.argb = argb;
+            }
+        }
+        
+        private void fillColors() {
+            final int numVertices = vertices.position() >> 2;
+            final byte r = tintColor(0, (argb >> 16) & 255);
+            final byte g = tintColor(1, (argb >>  8) & 255);
+            final byte b = tintColor(2,  argb        & 255);
+            final byte a = tintColor(3,  argb >>> 24);
+            for(int i=colorStart*4,end=numVertices*4 ; i<end ; i+=4) {
+                colors.put(i, r).put(i+1, g).put(i+2, b).put(i+3, a);
+            }
+            colorStart = numVertices;
+        }
+        
+        private byte tintColor(int idx, int value) {
+            return (byte)Math.min(255, Math.round(value * tint.get(idx)));
+        }
+
+        public void flush() {
+            int pos = vertices.position();
+            if(pos > 0) {
+                final int numVertices = pos >> 2;
+                if(colored) {
+                    fillColors();
+                    GL11.glEnableClientState(GL11.GL_COLOR_ARRAY);
+                }
+                if(vertexArray != null) {
+                    if(colored) {
+                        colors.clear();
+                        GL11.glColorPointer(4, true, 0, colors);
+                    }
+                    vertexArray.drawVertices(0, numVertices);
+                } else {
+                    drawVBO(numVertices);
+                }
+                if(colored) {
+                    GL11.glDisableClientState(GL11.GL_COLOR_ARRAY);
+                }
+                vertices.clear();
+                colorStart = 0;
+            }
+        }
+        
+        private void drawVBO(int numVertices) {
+            // glBufferData orphans the old storage of the buffer
+            if(colored) {
+                colors.position(0).limit(numVertices * 4);
+                GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, colorVbo);
+                GL15.glBufferData(GL15.GL_ARRAY_BUFFER, colors, GL15.GL_STREAM_DRAW);
+                GL11.glColorPointer(4, GL11.GL_UNSIGNED_BYTE, 0, 0L);
+                colors.clear();
+            }
+            vertices.flip();
+            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vbo);
+            GL15.glBufferData(GL15.GL_ARRAY_BUFFER, vertices, GL15.GL_STREAM_DRAW);
+            GL11.glTexCoordPointer(2, GL11.GL_FLOAT, 16, 0L);
+            GL11.glVertexPointer(2, GL11.GL_FLOAT, 16, 8L);
+            GL11.glDrawArrays(GL11.GL_QUADS, 0, numVertices);
+            GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+        }
+
+        public void end() {
+            flush();
+            if(vertexArray != null) {
+                vertexArray.unbind();
+            } else {
+                GL11.glDisableClientState(GL11.GL_VERTEX_ARRAY);
+                GL11.glDisableClientState(GL11.GL_TEXTURE_COORD_ARRAY);
+            }
+            if(distanceField) {
+                GL11.glDisable(GL11.GL_ALPHA_TEST);
+            }
+            texture = null;
+        }
+
+        public void destroy() {
+            if(vbo != 0) {
+                GL15.glDeleteBuffers(vbo);
+                GL15.glDeleteBuffers(colorVbo);
+                vbo = 0;
+                colorVbo = 0;
+            }
+        }
+    }
+}
@@ -34,24 +34,58 @@ import de.matthiasmann.javafreetype.FreeTypeGlyphInfo;
 import de.matthiasmann.twl.Color;
 import de.matthiasmann.twl.HAlignment;
 import de.matthiasmann.twl.renderer.lwjgl.LWJGLRenderer;
-import de.matthiasmann.twl.renderer.lwjgl.LWJGLTexture;
-import de.matthiasmann.twl.renderer.lwjgl.VertexArray;
 import de.matthiasmann.twl.utils.TextUtil;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.FloatBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.lwjgl.opengl.GL11;
 
 /**
+ * Renders text using a FreeType font at one pixel size.
+ * 
+ * <p>The text measurement methods are thread safe and can be used from
+ * layout worker threads. Drawing must be done by the render thread.</p>
  *
  * @author Matthias Mann
  */
 public class TTFFontRenderer {
     
+    /** The number of ints per run for {@link #drawTextRuns(int, int, java.lang.CharSequence, int, int, int[], int) } */
+    public static final int RUN_SIZE = 4;
+    /** Run decoration flag: underline */
+    public static final int RUN_UNDERLINE = 1;
+    /** Run decoration flag: line through */
+    public static final int RUN_LINETHROUGH = 2;
+    
     private static final int BATCH_SIZE = 512;
+    private static final int MAX_BATCH_SIZE = 8192;
+    private static final int SHRINK_BATCHES = 256;
+    private static final int PARALLEL_CHUNK_SIZE = 4096;
+    private static final int GLYPH_MEMORY_USAGE = 64;
+    private static final String NUMBER_CHARS = "0123456789-.";
+    private static final int NUMBER_MINUS = 10;
+    private static final int NUMBER_POINT = 11;
+    private static final Glyph PENDING_GLYPH = new Glyph(0, 0, 0, 0, 0, 0, null, null);
+    /** the maximum size of the bitmaps which are kept for queued glyphs */
+    private static final int MAX_QUEUED_BITMAP_BYTES = 256 * 1024;
+    private static final Comparator<Glyph> MOST_REQUESTED_FIRST = new Comparator<Glyph>() {
+        public int compare(Glyph a, Glyph b) {
+            return (a.requests > b.requests) ? -1 : (a.requests < b.requests) ? 1 : 0;
+        }
+    };
     
     private static final int LOG2_PAGE_SIZE = 9;
     private static final int PAGE_SIZE = 1 << LOG2_PAGE_SIZE;
@@ -62,260 +96,1463 @@ public class TTFFontRenderer {
     private final Glyph[][] unicode2glyphs;
     
     private final FontData fontData;
-    private final FreeTypeFont font;
-    private final FreeTypeFont.Size size;
-    private final ArrayList<Row> rows;
-    private final ByteBuffer tmpBuf;
-    private final VertexArray vertexArray;
-    private final FloatBuffer vaBuffer;
-    private int y;
-
-    protected LWJGLTexture texture;
-    protected float texWidthScale;
-    protected float texHeightScale;
+    private final int fontSize;
+    private FreeTypeFont font;
+    private FreeTypeFont.Size size;
+    private final FontRenderBackend backend;
+    private final GlyphAtlas atlas;
+    private ByteBuffer tmpBuf;
+    private Glyph tmpBufGlyph;
+    private IdentityHashMap<Glyph, byte[]> queuedBitmaps;
+    private int queuedBitmapBytes;
+    private GlyphBitmapCache bitmapCache;
+    UploadBudget uploadBudget;
+    private ArrayList<Glyph> pendingGlyphs;
+    private final FontRenderBackend.QuadBatch batch;
+    private FloatBuffer vaBuffer;
+    private int batchCapacity;
+    private int batchQuads;
+    private int smallBatches;
+    private TextLayout multiLineLayout;
+    private Glyph lastDrawnGlyph;
+    private int batchColor;
+    private TTFFontRenderer batchOwner;
+    private int[] savedColors;
+    private int nesting;
+    
+    private final int distanceFieldSpread;
+    private final TTFFontRenderer source;
+    private final float scale;
+    private DistanceFieldGenerator distanceFieldGenerator;
+    private ByteBuffer distanceFieldBuf;
+    
+    private final TTFFontRenderer primary;
+    private final TTFFontRenderer[] fallbacks;
+    private final ArrayList<Glyph> fallbackGlyphs;
+    
+    private final FontStatistics statistics;
+    private int numCreatedGlyphs;
+    int refCount;
+    long lastUsed;
+    /** the texture area used by the glyphs of this font renderer */
+    long atlasArea;
     
     protected final int lineHeight;
     protected final int baseLine;
     protected final int underlineOffset;
     protected final int underlineThickness;
-    protected final int spaceWidth;
-    protected final int ex;
+    private int spaceWidth;
+    private int ex;
+    private int fixedAdvance;
+    private volatile Glyph[] numberGlyphs;
+    private int tabSize;
+    private boolean clipped;
+    private int clipX0 = Integer.MIN_VALUE;
+    private int clipY0 = Integer.MIN_VALUE;
+    private int clipX1 = Integer.MAX_VALUE;
+    private int clipY1 = Integer.MAX_VALUE;
     protected boolean proportional;
 
-    public TTFFontRenderer(LWJGLRenderer renderer, FontData fontData, FreeTypeFont.Size size) throws IOException {
+    public TTFFontRenderer(LWJGLRenderer renderer, FontData fontData, int fontSize) {
+        this(new LWJGLFontRenderBackend(renderer), fontData, fontSize, 0);
+    }
+    
+    public TTFFontRenderer(LWJGLRenderer renderer, FontData fontData, int fontSize, int distanceFieldSpread) {
+        this(new LWJGLFontRenderBackend(renderer), fontData, fontSize, distanceFieldSpread);
+    }
+    
+    /**
+     * Creates a font renderer for the given pixel size of the font.
+     * 
+     * <p>The metrics are computed from the font header. The FreeType size
+     * and the buffer for rasterizing glyphs are created on the first glyph
+     * miss.</p>
+     * 
+     * <p>When {@code distanceFieldSpread} is &gt; 0 then the glyphs are stored
+     * as signed distance fields with the given spread in pixels. Such a
+     * font renderer can be used as source for scaled font renderers.</p>
+     * 
+     * @param backend the render backend
+     * @param fontData the font
+     * @param fontSize the font size in pixels
+     * @param distanceFieldSpread the distance field spread or 0
+     * @see #TTFFontRenderer(de.matthiasmann.twlfontmapper.TTFFontRenderer, float) 
+     */
+    public TTFFontRenderer(FontRenderBackend backend, FontData fontData, int fontSize, int distanceFieldSpread) {
+        this(backend, null, fontData, fontSize, distanceFieldSpread);
+    }
+    
+    /**
+     * Creates a font renderer which allocates its glyphs in the given
+     * texture. Font renderers which share a texture can add their glyphs to
+     * each other's batches.
+     * 
+     * @param backend the render backend
+     * @param atlas the shared texture or null to create an own texture
+     * @param fontData the font
+     * @param fontSize the font size in pixels
+     * @param distanceFieldSpread the distance field spread or 0
+     */
+    TTFFontRenderer(FontRenderBackend backend, GlyphAtlas atlas, FontData fontData, int fontSize, int distanceFieldSpread) {
+        if(backend == null) {
+            throw new NullPointerException("backend");
+        }
+        if(fontSize <= 0) {
+            throw new IllegalArgumentException("fontSize");
+        }
+        if(atlas != null && atlas.isLinearFilter() != (distanceFieldSpread > 0)) {
+            throw new IllegalArgumentException("atlas");
+        }
         this.fontData = fontData;
-        this.font = fontData.getFont();
-        this.size = size;
-        this.rows = new ArrayList<Row>();
-        this.glyphs = new Glyph[font.getNumGlyphs() + 1];
+        this.fontSize = fontSize;
+        this.glyphs = new Glyph[fontData.getNumGlyphs() + 1];
         this.unicode2glyphs = new Glyph[PAGES][];
-        this.numKerningPages = (font.getNumGlyphs()+PAGE_SIZE) / PAGE_SIZE;
+        this.numKerningPages = (fontData.getNumGlyphs()+PAGE_SIZE) / PAGE_SIZE;
+        this.distanceFieldSpread = distanceFieldSpread;
+        this.source = null;
+        this.scale = 1.0f;
+        this.primary = null;
+        this.fallbacks = null;
+        this.fallbackGlyphs = null;
+        
+        // distance fields have a border and must be filtered to be scaled
+        this.backend = backend;
+        this.atlas = (atlas != null) ? atlas
+                : new GlyphAtlas(backend, 1024, 1024, distanceFieldSpread > 0, false);
+        this.atlas.addUser(this);
         
-        assert font.getActiveSize() == size;
+        lineHeight = fontData.getLineHeight(fontSize);
+        baseLine = fontData.getAscent(fontSize);
+        underlineThickness = fontData.getUnderlineThickness(fontSize);
+        underlineOffset = baseLine - fontData.getUnderlinePosition(fontSize) - underlineThickness;
+        
+        batch = backend.createQuadBatch(BATCH_SIZE);
+        vaBuffer = batch.getVertices();
+        batchCapacity = BATCH_SIZE;
+        statistics = new FontStatistics();
+        uploadBudget = new UploadBudget();
+        if(atlas == null) {
+            // a shared texture counts its flushes in the statistics of its owner
+            this.atlas.statistics = statistics;
+        }
+        
+        spaceWidth = -1;
+        ex = -1;
+        proportional = !fontData.isFixedPitch();
+        // kerning or glyphs with other advances would break the fixed cell grid
+        fixedAdvance = (proportional || fontData.hasRawKerning() ||
+                !fontData.hasUniformAdvance()) ? 0 : -1;
+    }
+    
+    /**
+     * Creates a font renderer which draws the distance field glyphs of the
+     * source font renderer scaled by the given factor. It shares the texture
+     * of the source and does not rasterize glyphs itself.
+     * 
+     * @param source the source font renderer - must use distance fields
+     * @param scale the scale factor
+     */
+    public TTFFontRenderer(TTFFontRenderer source, float scale) {
+        if(source.distanceFieldSpread <= 0) {
+            throw new IllegalArgumentException("source must use distance fields");
+        }
+        if(scale <= 0) {
+            throw new IllegalArgumentException("scale");
+        }
+        this.fontData = source.fontData;
+        this.fontSize = Math.round(source.fontSize * scale);
+        this.glyphs = new Glyph[source.glyphs.length];
+        this.unicode2glyphs = new Glyph[PAGES][];
+        this.numKerningPages = source.numKerningPages;
+        this.distanceFieldSpread = 0;
+        this.source = source;
+        this.scale = scale;
+        this.primary = null;
+        this.fallbacks = null;
+        this.fallbackGlyphs = null;
+        this.backend = source.backend;
+        this.atlas = source.atlas;
+        atlas.addUser(this);
+        source.acquire();
         
-        // use NEAREST to prevent reading neighbour texels (there is no gap and possible garbage around glyphs)
-        texture = new LWJGLTexture(renderer, 1024, 1024, null, LWJGLTexture.Format.ALPHA, LWJGLTexture.Filter.NEAREST);
-        this.texWidthScale = 1.0f / texture.getTexWidth();
-        this.texHeightScale = 1.0f / texture.getTexHeight();
+        lineHeight = Math.round(source.lineHeight * scale);
+        baseLine = Math.round(source.baseLine * scale);
+        underlineThickness = Math.max(1, Math.round(source.underlineThickness * scale));
+        underlineOffset = Math.round(source.underlineOffset * scale);
         
-        lineHeight = font.getLineHeight();
-        baseLine = font.getAscent();
-        underlineThickness = font.getUnderlineThickness();
-        underlineOffset = baseLine - font.getUnderlinePosition() - underlineThickness;
+        batch = backend.createQuadBatch(BATCH_SIZE);
+        vaBuffer = batch.getVertices();
+        batchCapacity = BATCH_SIZE;
+        statistics = new FontStatistics();
+        uploadBudget = new UploadBudget();
         
-        int maxSize = 4 * font.getMaxWidth() * (font.getMaxDescent() + baseLine);
+        spaceWidth = -1;
+        ex = -1;
+        proportional = source.proportional;
+        fixedAdvance = (source.fixedAdvance == 0) ? 0 : -1;
+        tabSize = source.tabSize;
+    }
+    
+    /**
+     * Creates a font renderer which uses the glyphs of the primary font
+     * renderer and resolves code points which are not mapped by the primary
+     * font from the fallback font renderers in the given order.
+     * 
+     * <p>The glyph table and the texture are shared with the primary font
+     * renderer. Fallback glyphs are rasterized by their font into the
+     * texture of the primary font renderer so that mixed text is still
+     * drawn with a single texture.</p>
+     * 
+     * @param primary the primary font renderer - must not use distance fields
+     * @param fallbacks the fallback font renderers
+     */
+    public TTFFontRenderer(TTFFontRenderer primary, TTFFontRenderer[] fallbacks) {
+        if(primary.isDistanceField() || primary.fallbacks != null) {
+            throw new IllegalArgumentException("primary");
+        }
+        for(TTFFontRenderer fallback : fallbacks) {
+            if(fallback.isDistanceField()) {
+                throw new IllegalArgumentException("fallbacks");
+            }
+        }
+        this.fontData = primary.fontData;
+        this.fontSize = primary.fontSize;
+        this.glyphs = primary.glyphs;
+        this.unicode2glyphs = new Glyph[PAGES][];
+        this.numKerningPages = primary.numKerningPages;
+        this.distanceFieldSpread = 0;
+        this.source = null;
+        this.scale = 1.0f;
+        this.primary = primary;
+        this.fallbacks = fallbacks.clone();
+        this.fallbackGlyphs = new ArrayList<Glyph>();
+        this.backend = primary.backend;
+        this.atlas = primary.atlas;
+        atlas.addUser(this);
         
-        tmpBuf = ByteBuffer.allocateDirect(maxSize);
-        vertexArray = new VertexArray();
-        vaBuffer = vertexArray.allocate(BATCH_SIZE);
+        primary.acquire();
+        for(TTFFontRenderer fallback : this.fallbacks) {
+            fallback.acquire();
+        }
         
-        Glyph g = getGlyph(' ');
-        spaceWidth = (g != null) ? g.xadvance + g.width : 1;
+        lineHeight = primary.lineHeight;
+        baseLine = primary.baseLine;
+        underlineThickness = primary.underlineThickness;
+        underlineOffset = primary.underlineOffset;
+        spaceWidth = -1;
+        ex = -1;
+        // fallback glyphs can have any advance
+        proportional = primary.proportional;
+        fixedAdvance = 0;
+        tabSize = primary.tabSize;
         
-        Glyph gx = getGlyph('x');
-        ex = (gx != null) ? gx.height : 1;
+        batch = backend.createQuadBatch(BATCH_SIZE);
+        vaBuffer = batch.getVertices();
+        batchCapacity = BATCH_SIZE;
+        statistics = new FontStatistics();
+        uploadBudget = new UploadBudget();
     }
     
     public void destroy() {
-        if(texture != null) {
-            texture.destroy();
-            texture = null;
+        batch.destroy();
+        queuedBitmaps = null;
+        queuedBitmapBytes = 0;
+        atlas.removeUser(this);
+        if(bitmapCache != null && primary == null) {
+            for(Glyph g : glyphs) {
+                if(g != null) {
+                    bitmapCache.remove(g);
+                }
+            }
+        }
+        if(source != null) {
+            source.release();
+        }
+        if(primary != null) {
+            primary.release();
+            for(TTFFontRenderer fallback : fallbacks) {
+                fallback.release();
+            }
+        }
+    }
+    
+    /**
+     * Estimates the memory used by this font renderer. This includes the
+     * texture if it is owned by this font renderer, the glyph tables and
+     * the vertex buffer.
+     * 
+     * @return the estimated memory usage in bytes
+     */
+    public long getMemoryUsage() {
+        long bytes = (long)numCreatedGlyphs * GLYPH_MEMORY_USAGE
+                + 4L * (glyphs.length + PAGES)
+                + 16L * 4 * batchCapacity;
+        if(primary != null) {
+            // glyph table, buffers and texture are owned by the primary
+            return (long)fallbackGlyphs.size() * GLYPH_MEMORY_USAGE
+                    + 4L * PAGES + 16L * 4 * batchCapacity;
+        }
+        if(tmpBuf != null) {
+            bytes += tmpBuf.capacity();
+        }
+        bytes += queuedBitmapBytes;
+        if(distanceFieldBuf != null) {
+            bytes += distanceFieldBuf.capacity();
         }
+        if(source == null && !atlas.isShared()) {
+            bytes += atlas.getMemoryUsage();
+        }
+        return bytes;
+    }
+    
+    public FontData getFontData() {
+        return fontData;
+    }
+    
+    /**
+     * Returns the font size in pixels
+     * @return the font size in pixels
+     */
+    public int getFontSize() {
+        return fontSize;
+    }
+    
+    /**
+     * Returns the statistics of this font renderer. They also contain the
+     * glyphs created for fallback fonts.
+     * @return the statistics
+     */
+    public FontStatistics getStatistics() {
+        return statistics;
     }
     
-    final void setRawKerning(Glyph g, int toGlyph) throws IOException {
-        int value = font.getKerning(g.glyphIndex, toGlyph).x;
+    public GlyphBitmapCache getGlyphBitmapCache() {
+        return bitmapCache;
+    }
+
+    /**
+     * Sets the cache which keeps the rasterized glyph bitmaps when the glyph
+     * texture is flushed. The cache can be shared by several font renderers.
+     * 
+     * @param bitmapCache the cache or null to rasterize glyphs again after a flush
+     */
+    public void setGlyphBitmapCache(GlyphBitmapCache bitmapCache) {
+        this.bitmapCache = bitmapCache;
+    }
+
+    public int getMaxUploadGlyphs() {
+        return uploadBudget.maxGlyphs;
+    }
+
+    public long getMaxUploadNanos() {
+        return uploadBudget.maxNanos;
+    }
+    
+    /**
+     * Limits how many glyphs are rasterized and uploaded per frame. Glyphs
+     * which exceed the budget are not drawn and queued instead. At the start
+     * of the next frame the queued glyphs are uploaded first, the glyphs
+     * which were requested most often before the others.
+     * 
+     * <p>When a budget is set {@link #nextFrame() } must be called once per frame.</p>
+     * 
+     * <p>The font renderers created by a {@link TWLFontMapper} share the
+     * budget of the font mapper, this method then changes the budget for all
+     * of them.</p>
+     * 
+     * @param maxGlyphs the maximum number of glyphs per frame or 0 for no limit
+     * @param maxNanos the maximum time per frame in nanoseconds or 0 for no limit
+     * @see #isFullyResolved() 
+     */
+    public void setUploadBudget(int maxGlyphs, long maxNanos) {
+        uploadBudget.setLimits(maxGlyphs, maxNanos);
+    }
+    
+    /**
+     * Starts a new frame for the upload budget. The queued glyphs are
+     * uploaded by the next {@link #prepare(de.matthiasmann.twl.Color) }.
+     * 
+     * <p>For font renderers created by a {@link TWLFontMapper} call
+     * {@link TWLFontMapper#nextFrame() } instead.</p>
+     */
+    public void nextFrame() {
+        uploadBudget.nextFrame();
+    }
+    
+    /**
+     * Checks if all glyphs which have been drawn are in the texture. When
+     * this returns false some text was drawn incomplete because of the upload
+     * budget and will be complete after the next frames.
+     * 
+     * @return true if no glyphs are waiting for upload
+     */
+    public boolean isFullyResolved() {
+        return pendingGlyphs == null || pendingGlyphs.isEmpty();
+    }
+    
+    /**
+     * Returns the number of glyphs which are waiting for upload.
+     * @return the number of queued glyphs
+     */
+    public int getNumPendingGlyphs() {
+        return (pendingGlyphs != null) ? pendingGlyphs.size() : 0;
+    }
+    
+    public int getNumCreatedGlyphs() {
+        return numCreatedGlyphs;
+    }
+    
+    /**
+     * Returns the number of rows in the glyph texture. The texture may be
+     * shared with other font renderers.
+     * @return the number of rows
+     */
+    public int getAtlasRowCount() {
+        return atlas.getRowCount();
+    }
+    
+    /**
+     * Returns the fraction of the glyph texture which is covered by glyphs.
+     * The texture may be shared with other font renderers.
+     * @return the occupancy between 0 and 1
+     */
+    public float getAtlasOccupancy() {
+        return atlas.getOccupancy();
+    }
+    
+    final void acquire() {
+        refCount++;
+    }
+    
+    final void release() {
+        assert refCount > 0;
+        refCount--;
+    }
+    
+    /**
+     * Returns the width of a space. The glyph is created on the first call.
+     * @return the width of a space
+     */
+    final int getSpaceWidth() {
+        int value = spaceWidth;
+        if(value < 0) {
+            Glyph g = getGlyph(' ');
+            spaceWidth = value = (g != null) ? g.xadvance + g.width : 1;
+        }
+        return value;
+    }
+    
+    /**
+     * Returns the height of the 'x' glyph. The glyph is created on the first call.
+     * @return the height of the 'x' glyph
+     */
+    final int getEx() {
+        int value = ex;
+        if(value < 0) {
+            Glyph gx = getGlyph('x');
+            ex = value = (gx != null) ? gx.getBoundsHeight() : 1;
+        }
+        return value;
+    }
+    
+    /**
+     * Returns the advance of all glyphs when this font renderer uses the fixed
+     * pitch fast paths. This is the case for monospaced fonts without kerning
+     * whose glyphs all have the same advance (see {@link FontData#hasUniformAdvance() })
+     * and which are not combined with fallback fonts. Text is then measured
+     * in character cells without looking up glyphs and drawn on the same grid.
+     * 
+     * @return the cell width in pixels or 0 for a proportional font renderer
+     */
+    public int getFixedAdvance() {
+        int value = fixedAdvance;
+        if(value < 0) {
+            Glyph g = getGlyph(' ');
+            fixedAdvance = value = (g != null) ? g.xadvance : 0;
+        }
+        return value;
+    }
+    
+    public int getTabSize() {
+        return tabSize;
+    }
+    
+    /**
+     * Sets the distance between tab stops in character cells. Tabs are only
+     * expanded by fixed pitch font renderers (see {@link #getFixedAdvance() }).
+     * With a tab size of 0 a tab is drawn with its glyph like any other
+     * character - this is the default and keeps measuring O(1).
+     * 
+     * @param tabSize the tab size in character cells or 0
+     */
+    public void setTabSize(int tabSize) {
+        if(tabSize < 0) {
+            throw new IllegalArgumentException("tabSize");
+        }
+        this.tabSize = tabSize;
+    }
+    
+    /**
+     * Computes the number of character cells the text occupies, taking
+     * the tab size into account.
+     * 
+     * @param str the text
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @return the number of character cells
+     */
+    public int computeColumns(CharSequence str, int start, int end) {
+        final int tabs = tabSize;
+        if(tabs == 0) {
+            return end - start;
+        }
+        int col = 0;
+        for(; start<end ; start++) {
+            col += (str.charAt(start) == '\t') ? tabs - col % tabs : 1;
+        }
+        return col;
+    }
+    
+    /**
+     * Activates the FreeType size of this font renderer. The FreeType face
+     * and the size are created when they are needed for the first time and
+     * again after the FontData was unloaded.
+     * Must be called while holding the FontData lock.
+     * 
+     * @return the FreeType face
+     * @throws IOException if the face or size could not be created
+     */
+    private FreeTypeFont activateSize() throws IOException {
+        assert Thread.holdsLock(fontData);
+        FreeTypeFont f = fontData.getFont();
+        if(size == null || f != font) {
+            font = f;
+            size = f.createNewSize();
+            f.setActiveSize(size);
+            f.setPixelSize(0, fontSize);
+        } else {
+            f.setActiveSize(size);
+        }
+        return f;
+    }
+    
+    /**
+     * Returns true if this font renderer draws distance field glyphs
+     * @return true if this font renderer draws distance field glyphs
+     */
+    public boolean isDistanceField() {
+        return distanceFieldSpread > 0 || source != null;
+    }
+    
+    final byte[][] setRawKerning(byte[][] kerning, int fromGlyph, int toGlyph) throws IOException {
+        int value = font.getKerning(fromGlyph, toGlyph).x;
         if(value != 0) {
-            if(g.kerning == null) {
-                g.kerning = new byte[numKerningPages][];
+            if(kerning == null) {
+                kerning = new byte[numKerningPages][];
             }
             int pageIdx = toGlyph >>> LOG2_PAGE_SIZE;
-            byte[] page = g.kerning[pageIdx];
+            byte[] page = kerning[pageIdx];
             if(page == null) {
-                g.kerning[pageIdx] = page = new byte[PAGE_SIZE];
+                kerning[pageIdx] = page = new byte[PAGE_SIZE];
             }
             page[toGlyph & (PAGE_SIZE-1)] = (byte)value;
         }
+        return kerning;
     }
     
+    /**
+     * Returns the glyph for the given code point. This method is thread safe.
+     * 
+     * <p>The lookup of already created glyphs does not lock. Glyph metrics
+     * are immutable and published via final fields, so a racing reader
+     * either sees a complete glyph or null and falls back to
+     * {@link #makeGlyphFromCodepoint(int) } which re-checks while holding
+     * the FontData lock.</p>
+     * 
+     * @param codePoint the code point
+     * @return the glyph
+     */
     final Glyph getGlyph(int codePoint) {
+        Glyph g = lookupGlyph(codePoint);
+        if(g != null) {
+            return g;
+        }
+        return makeGlyphFromCodepoint(codePoint, false);
+    }
+    
+    private Glyph lookupGlyph(int codePoint) {
         int pageIdx = codePoint >> LOG2_PAGE_SIZE;
         if(pageIdx < unicode2glyphs.length) {
             Glyph[] page = unicode2glyphs[pageIdx];
             if(page != null) {
-                Glyph g = page[codePoint & (PAGE_SIZE-1)];
-                if(g != null) {
-                    return g;
-                }
+                return page[codePoint & (PAGE_SIZE-1)];
             }
         }
-        return makeGlyphFromCodepoint(codePoint);
+        return null;
     }
     
-    private Glyph makeGlyphFromCodepoint(int codepoint) {
-        Glyph g = null;
+    /**
+     * Creates the glyph for a code point which was not found in the glyph
+     * table.
+     * 
+     * @param codepoint the code point
+     * @param render true if the glyph is created for drawing - its bitmap is
+     *               then kept from the load which computed the metrics
+     * @return the glyph
+     */
+    private Glyph makeGlyphFromCodepoint(int codepoint, boolean render) {
+        // all FreeType access and all writes to the glyph tables are
+        // serialized on the FontData which owns the shared FreeTypeFont
+        synchronized(fontData) {
+            Glyph g = makeGlyphFromCodepointLocked(codepoint, render);
+            if(g != null) {
+                return g;
+            }
+        }
+        // the fallbacks lock their own FontData - never while holding ours
+        return makeFallbackGlyph(codepoint, render);
+    }
+    
+    private Glyph makeGlyphFromCodepointLocked(int codepoint, boolean render) {
+        Glyph g = lookupGlyphLocked(codepoint);
+        if(g != null) {
+            // created by another thread while we waited for the lock
+            return g;
+        }
+        
+        statistics.increment(FontStatistics.GLYPH_MISSES);
         try {
-            int glyphIndex = font.getGlyphForCodePoint(codepoint);
-            g = makeGlyph(glyphIndex);
+            int glyphIndex = fontData.getFont().getGlyphForCodePoint(codepoint);
+            if(glyphIndex == 0 && fallbacks != null) {
+                return null;
+            }
+            g = makeGlyph(glyphIndex, render);
             if(g == null) {
-                g = makeGlyph(0);
+                g = makeGlyph(0, render);
             }
         } catch (IOException e) {
             Logger.getLogger(TTFFontRenderer.class.getName()).log(Level.SEVERE, null, e);
         }
         
         if(g == null) {
-            g = new Glyph(0, 0, 0, 0, 0, 0);
+            g = new Glyph(0, 0, 0, 0, 0, 0, null, null);
+        }
+        
+        storeGlyphLocked(codepoint, g);
+        return g;
+    }
+    
+    private Glyph makeFallbackGlyph(int codepoint, boolean render) {
+        for(TTFFontRenderer fallback : fallbacks) {
+            Glyph src = fallback.getMappedGlyph(codepoint, render);
+            if(src != null) {
+                synchronized(fontData) {
+                    Glyph g = lookupGlyphLocked(codepoint);
+                    if(g == null) {
+                        // use the index past the last glyph - it has no kerning
+                        // pairs with the glyphs of the primary font
+                        g = new Glyph(glyphs.length - 1, src.width, src.height, src.xoffset,
+                                src.yoffset - fallback.baseLine + baseLine,
+                                src.xadvance, null, src);
+                        fallbackGlyphs.add(g);
+                        storeGlyphLocked(codepoint, g);
+                    }
+                    return g;
+                }
+            }
         }
         
+        // no font maps this code point - use the missing glyph of the primary
+        synchronized(fontData) {
+            Glyph g = lookupGlyphLocked(codepoint);
+            if(g == null) {
+                try {
+                    g = makeGlyph(0, render);
+                } catch (IOException e) {
+                    Logger.getLogger(TTFFontRenderer.class.getName()).log(Level.SEVERE, null, e);
+                }
+                if(g == null) {
+                    g = new Glyph(0, 0, 0, 0, 0, 0, null, null);
+                }
+                storeGlyphLocked(codepoint, g);
+            }
+            return g;
+        }
+    }
+    
+    private Glyph getMappedGlyph(int codepoint, boolean render) {
+        try {
+            synchronized(fontData) {
+                if(fontData.getFont().getGlyphForCodePoint(codepoint) == 0) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            Logger.getLogger(TTFFontRenderer.class.getName()).log(Level.SEVERE, null, e);
+            return null;
+        }
+        Glyph g = lookupGlyph(codepoint);
+        if(g == null) {
+            g = makeGlyphFromCodepoint(codepoint, render);
+        }
+        return g;
+    }
+    
+    private Glyph lookupGlyphLocked(int codepoint) {
+        Glyph[] page = unicode2glyphs[codepoint >> LOG2_PAGE_SIZE];
+        return (page != null) ? page[codepoint & (PAGE_SIZE - 1)] : null;
+    }
+    
+    private void storeGlyphLocked(int codepoint, Glyph g) {
         int pageIdx = codepoint >> LOG2_PAGE_SIZE;
         Glyph[] page = unicode2glyphs[pageIdx];
         if(page == null) {
             unicode2glyphs[pageIdx] = page = new Glyph[PAGE_SIZE];
         }
         page[codepoint & (PAGE_SIZE - 1)] = g;
-        
-        return g;
     }
     
-    private Glyph makeGlyph(int glyphIndex) throws IOException {
+    private Glyph makeGlyph(int glyphIndex, boolean render) throws IOException {
+        if(primary != null) {
+            // the glyph table is shared with the primary
+            return primary.makeGlyph(glyphIndex, render);
+        }
         Glyph g = glyphs[glyphIndex];
         if(g == null) {
-            font.setActiveSize(size);
-            FreeTypeGlyphInfo glyphInfo = font.loadGlyph(glyphIndex);
-            if(glyphInfo.getWidth() <= texture.getTexWidth() &&
-                    glyphInfo.getHeight() <= texture.getTexHeight()) {
-                g = new Glyph(glyphIndex,
-                        glyphInfo.getWidth(),
-                        glyphInfo.getHeight(),
-                        glyphInfo.getOffsetX(),
-                        baseLine - glyphInfo.getOffsetY(),
-                        glyphInfo.getAdvanceX());
-                glyphs[glyphIndex] = g;
+            if(source != null) {
+                Glyph src = source.makeGlyph(glyphIndex, render);
+                if(src != null) {
+                    g = makeScaledGlyph(src);
+                    glyphs[glyphIndex] = g;
+                    numCreatedGlyphs++;
+                }
+                return g;
+            }
+            
+            long startTime = System.nanoTime();
+            FreeTypeFont f = activateSize();
+            FreeTypeGlyphInfo glyphInfo = f.loadGlyph(glyphIndex);
+            int width = glyphInfo.getWidth();
+            int height = glyphInfo.getHeight();
+            if(render) {
+                // the glyph is uploaded or queued right after it was created -
+                // keep the bitmap of this load instead of loading it again
+                keepTmpBuf();
+                if(width > 0 && height > 0) {
+                    copyGlyphToTmpBuf(f, width, height);
+                }
+            }
+            statistics.add(FontStatistics.RASTERIZE_NANOS, System.nanoTime() - startTime);
+            int xoffset = glyphInfo.getOffsetX();
+            int yoffset = baseLine - glyphInfo.getOffsetY();
+            int padding = 0;
+            if(distanceFieldSpread > 0 && width > 0 && height > 0) {
+                padding = distanceFieldSpread;
+                width += 2*padding;
+                height += 2*padding;
+                xoffset -= padding;
+                yoffset -= padding;
+            }
+            if(width <= atlas.getWidth() && height <= atlas.getHeight()) {
+                byte[][] kerning = null;
+                if(fontData.hasRawKerning()) {
+                    long kerningStartTime = System.nanoTime();
+                    kerning = fontData.readRawKerning(this, glyphIndex);
+                    statistics.add(FontStatistics.KERNING_NANOS, System.nanoTime() - kerningStartTime);
+                }
                 
-                if(font.hasKerning()) {
-                    fontData.readRawKerning(this, g);
+                g = new Glyph(glyphIndex, width, height, xoffset, yoffset,
+                        glyphInfo.getAdvanceX(), padding, kerning, null);
+                if(render && tmpBufGlyph == PENDING_GLYPH) {
+                    tmpBufGlyph = g;
                 }
+                glyphs[glyphIndex] = g;
+                numCreatedGlyphs++;
             }
         }
         return g;
     }
+    
+    private Glyph makeScaledGlyph(Glyph src) {
+        byte[][] kerning = null;
+        if(src.kerning != null) {
+            kerning = new byte[src.kerning.length][];
+            for(int pageIdx=0 ; pageIdx<kerning.length ; pageIdx++) {
+                byte[] srcPage = src.kerning[pageIdx];
+                if(srcPage != null) {
+                    byte[] page = new byte[PAGE_SIZE];
+                    for(int i=0 ; i<PAGE_SIZE ; i++) {
+                        page[i] = (byte)Math.round(srcPage[i] * scale);
+                    }
+                    kerning[pageIdx] = page;
+                }
+            }
+        }
+        
+        // scale the quad relative to the base line
+        int x0 = Math.round(src.xoffset * scale);
+        int y0 = Math.round((src.yoffset - source.baseLine) * scale) + baseLine;
+        int x1 = Math.round((src.xoffset + src.width) * scale);
+        int y1 = Math.round((src.yoffset + src.height - source.baseLine) * scale) + baseLine;
+        
+        return new Glyph(src.glyphIndex, x1 - x0, y1 - y0, x0, y0,
+                Math.round(src.xadvance * scale), Math.round(src.padding * scale),
+                kerning, src);
+    }
 
+    /**
+     * Returns the glyph for a code point which is about to be drawn. When it
+     * has to be created it's bitmap is kept for the upload. Callers must
+     * use {@link #admitGlyph(de.matthiasmann.twlfontmapper.TTFFontRenderer.Glyph) }
+     * before drawing it.
+     */
     final Glyph getGlyphRender(int codePoint) {
-        final Glyph g = getGlyph(codePoint);
-        if(g != null && g.tx0 < 0) {
-            uploadGlyph(g);
+        Glyph g = lookupGlyph(codePoint);
+        if(g == null) {
+            g = makeGlyphFromCodepoint(codePoint, true);
         }
         return g;
     }
+    
+    /**
+     * Uploads the glyph if it is not in the texture yet. Over the upload
+     * budget it is queued instead.
+     * 
+     * @param g the glyph
+     * @return true if the glyph can be drawn
+     */
+    private boolean admitGlyph(Glyph g) {
+        if(!g.isUploadNeeded()) {
+            return true;
+        }
+        if(source != null && g.source.uploaded) {
+            // only the texture coordinates need to be copied
+            uploadGlyph(g);
+            return true;
+        }
+        if(isOverUploadBudget()) {
+            if(g.requests++ == 0) {
+                if(pendingGlyphs == null) {
+                    pendingGlyphs = new ArrayList<Glyph>();
+                }
+                pendingGlyphs.add(g);
+            }
+            return false;
+        }
+        uploadGlyphInFrame(g);
+        return g.uploaded;
+    }
+    
+    private boolean isOverUploadBudget() {
+        return uploadBudget.isExhausted();
+    }
+    
+    private void uploadGlyphInFrame(Glyph g) {
+        long startTime = System.nanoTime();
+        uploadGlyph(g);
+        uploadBudget.add(System.nanoTime() - startTime);
+    }
+    
+    /**
+     * Uploads the queued glyphs in order of their request count until the
+     * budget of this frame is used up. Must be called while the batch is
+     * active.
+     */
+    private void uploadPendingGlyphs() {
+        final ArrayList<Glyph> pending = pendingGlyphs;
+        Collections.sort(pending, MOST_REQUESTED_FIRST);
+        int count = 0;
+        for(int n=pending.size() ; count<n && !isOverUploadBudget() ; count++) {
+            Glyph g = pending.get(count);
+            g.requests = 0;
+            if(g.isUploadNeeded()) {
+                uploadGlyphInFrame(g);
+            }
+        }
+        pending.subList(0, count).clear();
+    }
 
     private void uploadGlyph(Glyph g) {
-        Row row = findRow(g.width, g.height);
-
+        if(source != null) {
+            Glyph src = g.source;
+            if(src.isUploadNeeded()) {
+                source.uploadGlyph(src);
+            }
+            if(src.uploaded) {
+                g.setTexCoords(src);
+            }
+            return;
+        }
+        
         try {
-            font.setActiveSize(size);
-            font.loadGlyph(g.glyphIndex);
-
-            tmpBuf.clear();
-            if(font.copyGlyphToByteBuffer(tmpBuf, g.width)) {
-                tmpBuf.flip();
-                GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, row.x, row.y, g.width, g.height, GL11.GL_ALPHA, GL11.GL_UNSIGNED_BYTE, tmpBuf);
-                g.set(row.x, row.y, texWidthScale, texHeightScale);
-                row.x += g.width;
+            long startTime = System.nanoTime();
+            ByteBuffer data;
+            if(g.source != null) {
+                // a fallback glyph: rasterized by its font into our texture
+                data = findFallback(g.source).rasterizeGlyph(g.source);
+            } else if(primary != null) {
+                data = primary.rasterizeGlyph(g);
+            } else {
+                data = rasterizeGlyph(g);
+            }
+            statistics.add(FontStatistics.RASTERIZE_NANOS, System.nanoTime() - startTime);
+            if(data != null) {
+                atlas.upload(g, data);
+                atlasArea += g.width * g.height;
+                statistics.increment(FontStatistics.UPLOAD_CALLS);
+                statistics.add(FontStatistics.UPLOAD_BYTES, g.width * g.height);
             }
         } catch (IOException e) {
             Logger.getLogger(TTFFontRenderer.class.getName()).log(Level.SEVERE, null, e);
         }
     }
     
-    private Row findRow(int width, int height) {
-        // align row height to reduce the number of similar sized rows
-        height = (height + 3) & -4;
+    private TTFFontRenderer findFallback(Glyph src) {
+        for(TTFFontRenderer fallback : fallbacks) {
+            if(fallback.glyphs[src.glyphIndex] == src) {
+                return fallback;
+            }
+        }
+        throw new IllegalStateException("no fallback for glyph");
+    }
+    
+    private ByteBuffer rasterizeGlyph(Glyph g) throws IOException {
+        final int spread = distanceFieldSpread;
+        final int width = g.width - 2*spread;
+        final int height = g.height - 2*spread;
+        final GlyphBitmapCache cache = bitmapCache;
         
-        int end = texture.getTexWidth() - width;
-        Row bestRow = null;
-        for(int i=0 ; i<rows.size() ; i++) {
-            Row row = rows.get(i);
-            if(row.height >= height && row.height < height*2 && row.x <= end) {
-                if(bestRow == null || row.height < bestRow.height) {
-                    bestRow = row;
+        if(tmpBufGlyph != g) {
+            keepTmpBuf();
+            byte[] queued = (queuedBitmaps != null) ? queuedBitmaps.remove(g) : null;
+            if(queued != null) {
+                queuedBitmapBytes -= queued.length;
+                ensureTmpBuf(queued.length);
+                tmpBuf.clear();
+                tmpBuf.put(queued).flip();
+                return makeGlyphData(width, height, g);
+            }
+            if(cache != null) {
+                ensureTmpBuf(g.width * g.height);
+                tmpBufGlyph = null;
+                tmpBuf.clear();
+                if(cache.get(g, tmpBuf)) {
+                    tmpBuf.flip();
+                    return tmpBuf;
                 }
             }
+            // the glyph was created for measuring or was flushed - load it again
+            synchronized(fontData) {
+                FreeTypeFont f = activateSize();
+                f.loadGlyph(g.glyphIndex);
+                copyGlyphToTmpBuf(f, width, height);
+            }
+            if(tmpBufGlyph != PENDING_GLYPH) {
+                return null;
+            }
         }
-        if(bestRow != null) {
-            return bestRow;
+        tmpBufGlyph = null;
+        return makeGlyphData(width, height, g);
+    }
+    
+    private ByteBuffer makeGlyphData(int width, int height, Glyph g) {
+        ByteBuffer data = (distanceFieldSpread > 0) ? makeDistanceField(width, height) : tmpBuf;
+        if(bitmapCache != null) {
+            bitmapCache.put(g, data);
         }
-        return newRow(height);
+        return data;
     }
     
-    private Row newRow(int height) {
-        if(texture.getTexHeight() - y < height) {
-            flushTexture();
+    /**
+     * Moves the bitmap in tmpBuf out of the way when it's glyph was not
+     * uploaded yet because the upload budget queued it. The bitmap is used
+     * by {@link #rasterizeGlyph(de.matthiasmann.twlfontmapper.TTFFontRenderer.Glyph) }
+     * when the glyph is uploaded in a later frame. Must be called before
+     * tmpBuf is reused.
+     */
+    private void keepTmpBuf() {
+        final Glyph g = tmpBufGlyph;
+        tmpBufGlyph = null;
+        if(g == null || g == PENDING_GLYPH) {
+            return;
         }
-        
-        System.out.println("made row " + height);
-        Row row = new Row(y, height);
-        y += height;
-        rows.add(row);
-        return row;
+        final int size = tmpBuf.remaining();
+        if(queuedBitmapBytes + size > MAX_QUEUED_BITMAP_BYTES) {
+            // it is loaded again by FreeType
+            return;
+        }
+        if(queuedBitmaps == null) {
+            queuedBitmaps = new IdentityHashMap<Glyph, byte[]>();
+        }
+        byte[] bitmap = new byte[size];
+        tmpBuf.get(bitmap);
+        queuedBitmaps.put(g, bitmap);
+        queuedBitmapBytes += size;
+    }
+    
+    /**
+     * Copies the bitmap of the currently loaded glyph into tmpBuf. On success
+     * tmpBufGlyph is set to PENDING_GLYPH until the glyph object is known.
+     * Must be called while holding the FontData lock from the render thread.
+     */
+    private void copyGlyphToTmpBuf(FreeTypeFont f, int width, int height) throws IOException {
+        ensureTmpBuf(4 * width * height);
+        tmpBuf.clear();
+        if(f.copyGlyphToByteBuffer(tmpBuf, width)) {
+            tmpBuf.flip();
+            tmpBufGlyph = PENDING_GLYPH;
+        } else {
+            tmpBufGlyph = null;
+        }
+    }
+    
+    private void ensureTmpBuf(int size) {
+        if(tmpBuf == null || tmpBuf.capacity() < size) {
+            int maxSize = 4 * fontData.getMaxAdvance(fontSize) * (fontData.getDescent(fontSize) + baseLine);
+            tmpBuf = ByteBuffer.allocateDirect(Math.max(maxSize, size));
+        }
+    }
+    
+    private ByteBuffer makeDistanceField(int width, int height) {
+        final int spread = distanceFieldSpread;
+        int size = (width + 2*spread) * (height + 2*spread);
+        if(distanceFieldBuf == null || distanceFieldBuf.capacity() < size) {
+            distanceFieldBuf = ByteBuffer.allocateDirect(Math.max(size, 4096));
+            distanceFieldGenerator = new DistanceFieldGenerator();
+        }
+        distanceFieldBuf.clear();
+        distanceFieldGenerator.generate(tmpBuf, width, height, spread, distanceFieldBuf);
+        distanceFieldBuf.flip();
+        return distanceFieldBuf;
     }
     
-    private void flushTexture() {
+    void atlasFlushed() {
         flush();
-        rows.clear();
-        y = 0;
+        atlasArea = 0;
         for(Glyph g : glyphs) {
-            if(g != null && g.width > 0 && g.height > 0) {
-                g.tx0 = -1f;
+            if(g != null) {
+                g.uploaded = false;
+            }
+        }
+        if(fallbackGlyphs != null) {
+            synchronized(fontData) {
+                for(int i=0,n=fallbackGlyphs.size() ; i<n ; i++) {
+                    fallbackGlyphs.get(i).uploaded = false;
+                }
             }
         }
     }
 
+    /**
+     * Starts drawing text in the given color. Every successful call must be
+     * followed by {@link #cleanup() }.
+     * 
+     * <p>When another font renderer which shares the texture has already
+     * started drawing then the text is added to it's batch with a different
+     * color. This allows to draw text in several fonts and sizes with one
+     * batch by nesting the prepare and cleanup calls. A font renderer can
+     * also be nested inside it's own prepare and cleanup calls.</p>
+     * 
+     * @param color the text color
+     * @return false if nothing should be drawn, eg because the color is transparent
+     */
     public boolean prepare(Color color) {
-        if(texture.bind(color)) {
-            vertexArray.bind();
-            return true;
+        lastUsed = System.nanoTime();
+        TTFFontRenderer outer = atlas.activeRenderer;
+        if(outer != null) {
+            if(color.getAlpha() == 0) {
+                return false;
+            }
+            if(savedColors == null) {
+                savedColors = new int[4];
+            } else if(nesting == savedColors.length) {
+                int[] tmp = new int[nesting * 2];
+                System.arraycopy(savedColors, 0, tmp, 0, nesting);
+                savedColors = tmp;
+            }
+            // restored by cleanup - the outer call may be on this font renderer
+            savedColors[nesting++] = atlas.activeColor;
+            if(batchOwner == null) {
+                batchOwner = outer;
+                vaBuffer = outer.vaBuffer;
+            }
+            batchColor = color.toARGB();
+            setBatchColor(batchColor);
+        } else {
+            batchColor = color.toARGB();
+            batchQuads = 0;
+            if(!batch.begin(atlas.getTexture(), color, isDistanceField())) {
+                return false;
+            }
+            batchOwner = this;
+            atlas.activeRenderer = this;
+            atlas.activeColor = batchColor;
+        }
+        if(pendingGlyphs != null && !pendingGlyphs.isEmpty() && !isOverUploadBudget()) {
+            uploadPendingGlyphs();
         }
-        return false;
+        return true;
     }
 
     public void cleanup() {
+        if(nesting > 0) {
+            // the batch is continued by the outer prepare call
+            batchColor = savedColors[--nesting];
+            setBatchColor(batchColor);
+            if(nesting == 0 && batchOwner != this) {
+                vaBuffer = batch.getVertices();
+                batchOwner = null;
+                if(clipped) {
+                    clearClipRect();
+                }
+            }
+            return;
+        }
+        if(clipped) {
+            // the visible area only applies to the draw calls of this batch
+            clearClipRect();
+        }
         flush();
-        vertexArray.unbind();
+        batch.end();
+        batchOwner = null;
+        atlas.activeRenderer = null;
+        adaptBatchCapacity();
+    }
+    
+    private void setBatchColor(int argb) {
+        batchOwner.batch.setColor(argb);
+        atlas.activeColor = argb;
     }
     
     private void flush() {
-        int pos = vaBuffer.position();
+        final TTFFontRenderer owner = batchOwner;
+        if(owner != null && owner != this) {
+            owner.flush();
+            return;
+        }
+        final int pos = vaBuffer.position();
         if(pos > 0) {
-            vertexArray.drawVertices(0, pos >> 2);
-            vaBuffer.clear();
+            statistics.increment(FontStatistics.BATCHES);
+            batchQuads += pos >> 4;
+            batch.flush();
+        }
+    }
+    
+    /**
+     * Adapts the size of the vertex buffer to the number of quads which were
+     * drawn between prepare and cleanup. When they did not fit the buffer
+     * grows so that the next draw of the same text is submitted at once.
+     * After many small draws it shrinks again.
+     */
+    private void adaptBatchCapacity() {
+        final int quads = batchQuads;
+        int capacity = batchCapacity;
+        if(quads > capacity) {
+            smallBatches = 0;
+            while(capacity < quads && capacity < MAX_BATCH_SIZE) {
+                capacity *= 2;
+            }
+        } else if(capacity > BATCH_SIZE && quads < capacity / 4) {
+            if(++smallBatches >= SHRINK_BATCHES) {
+                smallBatches = 0;
+                capacity /= 2;
+            }
+        } else {
+            smallBatches = 0;
+        }
+        if(capacity != batchCapacity) {
+            batch.setCapacity(capacity);
+            vaBuffer = batch.getVertices();
+            batchCapacity = capacity;
+        }
+    }
+    
+    /**
+     * Returns the number of quads the vertex buffer can hold. It grows when
+     * a draw does not fit and shrinks again after many small draws.
+     * @return the capacity of the vertex buffer in quads
+     */
+    public int getBatchCapacity() {
+        return batchCapacity;
+    }
+    
+    /**
+     * Sets the visible area for the following draw calls. Lines outside of
+     * this rectangle are skipped and no quads are emitted for glyphs outside
+     * of it, so that drawing a large scrolled text only costs what is
+     * visible. The draw methods still return the same values.
+     * 
+     * <p>Must be called after {@link #prepare(de.matthiasmann.twl.Color) } -
+     * the visible area is removed by {@link #cleanup() }, so a font renderer
+     * which is shared by several widgets never draws with the area of a
+     * previous batch.</p>
+     * 
+     * <p>This does not clip the drawn glyphs - the renderer's clip rectangle
+     * is still needed for glyphs which are partially visible.</p>
+     * 
+     * @param x the left edge
+     * @param y the top edge
+     * @param width the width of the visible area
+     * @param height the height of the visible area
+     * @see #clearClipRect() 
+     */
+    public void setClipRect(int x, int y, int width, int height) {
+        clipped = true;
+        clipX0 = x;
+        clipY0 = y;
+        clipX1 = x + Math.max(0, width);
+        clipY1 = y + Math.max(0, height);
+    }
+    
+    /**
+     * Removes the visible area - all glyphs are drawn. This is done
+     * automatically by {@link #cleanup() }.
+     * @see #setClipRect(int, int, int, int) 
+     */
+    public void clearClipRect() {
+        clipped = false;
+        clipX0 = Integer.MIN_VALUE;
+        clipY0 = Integer.MIN_VALUE;
+        clipX1 = Integer.MAX_VALUE;
+        clipY1 = Integer.MAX_VALUE;
+    }
+    
+    private boolean isLineVisible(int y) {
+        return y < clipY1 && y + lineHeight > clipY0;
+    }
+    
+    /**
+     * Draws an underline or line through with the thickness of the underline.
+     * The line is emitted into the glyph batch like a glyph, so it must be
+     * called between {@link #prepare(de.matthiasmann.twl.Color) } and
+     * {@link #cleanup() }.
+     * 
+     * @param x0 the left edge
+     * @param y the top edge
+     * @param x1 the right edge
+     */
+    public void drawLine(int x0, int y, int x1) {
+        if(x1 <= x0 || y >= clipY1 || y + underlineThickness <= clipY0) {
+            return;
+        }
+        if(!vaBuffer.hasRemaining()) {
+            flush();
+        }
+        atlas.getSolid().drawRect(vaBuffer, x0, y, x1, y + underlineThickness);
+    }
+    
+    /**
+     * Draws an underline or line through with its own batch.
+     * 
+     * @param x0 the left edge
+     * @param y the top edge
+     * @param x1 the right edge
+     * @param color the text color
+     * @see #drawLine(int, int, int) 
+     */
+    public void drawLine(int x0, int y, int x1, Color color) {
+        if(prepare(color)) {
+            try {
+                drawLine(x0, y, x1);
+            } finally {
+                cleanup();
+            }
         }
     }
     
     public int computeTextWidth(CharSequence str, int start, int end) {
-        int width = 0;
-        Glyph lastGlyph = null;
-        while(start < end) {
-            int ch = str.charAt(start++);
-            lastGlyph = getGlyph(ch);
-            if(lastGlyph != null) {
-                width = lastGlyph.xadvance;
-                break;
+        final int advance = getFixedAdvance();
+        if(advance <= 0) {
+            statistics.add(FontStatistics.GLYPH_LOOKUPS, end - start);
+        }
+        return measureText(str, start, end, advance);
+    }
+
+    /**
+     * Computes the widths of many strings at once.
+     * 
+     * <p>The statistics are updated and the fixed advance is checked once
+     * per batch instead of once per string, and the glyphs of the first
+     * code page are looked up without going through the page table.</p>
+     * 
+     * @param strs the strings to measure
+     * @param widths receives the width of each string - must be at least as long as strs
+     */
+    public void computeTextWidths(CharSequence[] strs, int[] widths) {
+        if(widths.length < strs.length) {
+            throw new IllegalArgumentException("widths is too short");
+        }
+        computeTextWidths(strs, widths, 0, strs.length);
+    }
+    
+    private void computeTextWidths(CharSequence[] strs, int[] widths, int start, int end) {
+        final int advance = getFixedAdvance();
+        long numChars = 0;
+        for(int i=start ; i<end ; i++) {
+            CharSequence str = strs[i];
+            int width = 0;
+            if(str != null) {
+                int len = str.length();
+                width = measureText(str, 0, len, advance);
+                numChars += len;
             }
+            widths[i] = width;
         }
+        if(advance <= 0) {
+            statistics.add(FontStatistics.GLYPH_LOOKUPS, numChars);
+        }
+    }
+    
+    /**
+     * Measures a text without updating the statistics. All measure methods
+     * use this, the batch methods update the statistics once per batch.
+     * 
+     * @param str the text
+     * @param start the start index
+     * @param end the end index
+     * @param advance the result of {@link #getFixedAdvance() }
+     * @return the width of the text
+     */
+    private int measureText(CharSequence str, int start, int end, int advance) {
+        if(advance > 0) {
+            return computeColumns(str, start, end) * advance;
+        }
+        Glyph[] page0 = unicode2glyphs[0];
+        int width = 0;
+        Glyph lastGlyph = null;
         while(start < end) {
             char ch = str.charAt(start++);
-            Glyph g = getGlyph(ch);
-            if(g != null) {
+            Glyph g = null;
+            if(ch < PAGE_SIZE && page0 != null) {
+                g = page0[ch];
+            }
+            if(g == null) {
+                g = getGlyph(ch);
+                page0 = unicode2glyphs[0];
+                if(g == null) {
+                    continue;
+                }
+            }
+            if(lastGlyph != null) {
                 width += lastGlyph.getKerning(g.glyphIndex);
-                lastGlyph = g;
-                width += g.xadvance;
             }
+            lastGlyph = g;
+            width += g.xadvance;
         }
         return width;
     }
-
+    
+    /**
+     * Computes the widths of many strings at once and splits large batches
+     * into chunks which are measured by the given executor.
+     * 
+     * <p>Measuring text is thread safe, this method blocks until all
+     * chunks have been measured.</p>
+     * 
+     * @param strs the strings to measure
+     * @param widths receives the width of each string - must be at least as long as strs
+     * @param executor the executor which measures the chunks
+     * @throws InterruptedException if the calling thread was interrupted while waiting
+     */
+    public void computeTextWidths(final CharSequence[] strs, final int[] widths, ExecutorService executor) throws InterruptedException {
+        if(widths.length < strs.length) {
+            throw new IllegalArgumentException("widths is too short");
+        }
+        if(strs.length <= PARALLEL_CHUNK_SIZE) {
+            computeTextWidths(strs, widths, 0, strs.length);
+            return;
+        }
+        
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for(int chunkStart=0 ; chunkStart<strs.length ; chunkStart+=PARALLEL_CHUNK_SIZE) {
+            final int start = chunkStart;
+            final int end = Math.min(strs.length, chunkStart + PARALLEL_CHUNK_SIZE);
+            tasks.add(new Callable<Object>() {
+                public Object call() {
+                    computeTextWidths(strs, widths, start, end);
+                    return null;
+                }
+            });
+        }
+        
+        for(Future<Object> f : executor.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if(cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                if(cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+    
+    /**
+     * Computes the widths of many strings at once.
+     * 
+     * @param strs the strings to measure
+     * @param widths receives the width of each string - must be at least as long as strs
+     */
+    public void computeTextWidths(List<? extends CharSequence> strs, int[] widths) {
+        final int count = strs.size();
+        if(widths.length < count) {
+            throw new IllegalArgumentException("widths is too short");
+        }
+        final int advance = getFixedAdvance();
+        long numChars = 0;
+        // avoid the iterator for random access lists
+        Iterator<? extends CharSequence> iter = (strs instanceof RandomAccess) ? null : strs.iterator();
+        for(int i=0 ; i<count ; i++) {
+            CharSequence str = (iter != null) ? iter.next() : strs.get(i);
+            int width = 0;
+            if(str != null) {
+                int len = str.length();
+                width = measureText(str, 0, len, advance);
+                numChars += len;
+            }
+            widths[i] = width;
+        }
+        if(advance <= 0) {
+            statistics.add(FontStatistics.GLYPH_LOOKUPS, numChars);
+        }
+    }
+    
+    /**
+     * Computes the widths of many strings which are packed into one char array.
+     * String {@code i} is stored in {@code chars[offsets[i]]} to {@code chars[offsets[i+1]-1]}.
+     * 
+     * @param chars the packed characters of all strings
+     * @param offsets the start offsets of the strings - must contain count+1 entries
+     * @param count the number of strings
+     * @param widths receives the width of each string
+     */
+    public void computeTextWidths(char[] chars, int[] offsets, int count, int[] widths) {
+        if(offsets.length <= count) {
+            throw new IllegalArgumentException("offsets is too short");
+        }
+        if(widths.length < count) {
+            throw new IllegalArgumentException("widths is too short");
+        }
+        final int advance = getFixedAdvance();
+        final CharBuffer str = CharBuffer.wrap(chars);
+        for(int i=0 ; i<count ; i++) {
+            widths[i] = measureText(str, offsets[i], offsets[i+1], advance);
+        }
+        if(advance <= 0) {
+            statistics.add(FontStatistics.GLYPH_LOOKUPS, offsets[count] - offsets[0]);
+        }
+    }
+    
     public int computeVisibleGlpyhs(CharSequence str, int start, int end, int availWidth) {
+        final int advance = getFixedAdvance();
+        if(advance > 0) {
+            return computeVisibleColumns(str, start, end, Math.max(0, availWidth) / advance);
+        }
+        statistics.add(FontStatistics.GLYPH_LOOKUPS, end - start);
         int index = start;
         int width = 0;
         Glyph lastGlyph = null;
@@ -333,7 +1570,7 @@ public class TTFFontRenderer {
                         break;
                     }
                 } else {
-                    if(width + g.width + g.xoffset > availWidth) {
+                    if(width + g.getRight() > availWidth) {
                         break;
                     }
                     width += g.xadvance;
@@ -343,18 +1580,68 @@ public class TTFFontRenderer {
         return index - start;
     }
     
+    private int computeVisibleColumns(CharSequence str, int start, int end, int availColumns) {
+        final int tabs = tabSize;
+        if(tabs == 0) {
+            return Math.min(end - start, availColumns);
+        }
+        int col = 0;
+        int index = start;
+        for(; index<end ; index++) {
+            col += (str.charAt(index) == '\t') ? tabs - col % tabs : 1;
+            if(col > availColumns) {
+                break;
+            }
+        }
+        return index - start;
+    }
+    
+    /**
+     * Returns the index of the character at the given X position. For fixed
+     * pitch font renderers this is computed from the character cells without
+     * looking up glyphs.
+     * 
+     * @param str the text
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @param x the X position relative to the start of the text
+     * @return the character index or end if x is past the end of the text
+     * @see TextWidthIndex#getCharIndexAt(int, int, int) 
+     */
+    public int getCharIndexAt(CharSequence str, int start, int end, int x) {
+        if(x < 0) {
+            return start;
+        }
+        final int advance = getFixedAdvance();
+        if(advance > 0) {
+            return start + computeVisibleColumns(str, start, end, x / advance);
+        }
+        statistics.add(FontStatistics.GLYPH_LOOKUPS, end - start);
+        int pos = 0;
+        Glyph lastGlyph = null;
+        for(; start<end ; start++) {
+            Glyph g = getGlyph(str.charAt(start));
+            if(g != null) {
+                if(lastGlyph != null) {
+                    pos += lastGlyph.getKerning(g.glyphIndex);
+                }
+                lastGlyph = g;
+                pos += g.xadvance;
+                if(pos > x) {
+                    break;
+                }
+            }
+        }
+        return start;
+    }
+    
     public void computeMultiLineInfo(CharSequence str, int width, HAlignment align, int[] multiLineInfo) {
         int start = 0;
         int idx = 0;
         while(start < str.length()) {
             int lineEnd = TextUtil.indexOf(str, '\n', start);
             int lineWidth = computeTextWidth(str, start, lineEnd);
-            int xoff = width - lineWidth;
-            if(align == HAlignment.LEFT) {
-                xoff = 0;
-            } else if(align == HAlignment.CENTER) {
-                xoff /= 2;
-            }
+            int xoff = computeAlignOffset(width, lineWidth, align);
             multiLineInfo[idx++] = (lineWidth << 16) | (xoff & 0xFFFF);
             start = lineEnd + 1;
         }
@@ -373,26 +1660,105 @@ public class TTFFontRenderer {
     }
 
     public int drawText(int x, int y, CharSequence str, int start, int end) {
-        FloatBuffer va = vaBuffer;
-        int startX = x;
-        Glyph lastGlyph = null;
-        while(start < end) {
-            lastGlyph = getGlyphRender(str.charAt(start++));
-            if(lastGlyph != null) {
-                if(lastGlyph.width > 0) {
-                    lastGlyph.draw(va, x, y);
-                }
-                x += lastGlyph.xadvance;
-                break;
+        if(!isLineVisible(y)) {
+            return computeTextWidth(str, start, end);
+        }
+        statistics.add(FontStatistics.GLYPH_LOOKUPS, end - start);
+        lastDrawnGlyph = null;
+        return drawSegment(x, x, y, str, start, end) - x;
+    }
+    
+    /**
+     * Draws a text which consists of differently styled runs in one batch.
+     * Each run uses {@link #RUN_SIZE} entries of the runs array: the start
+     * index, the end index (exclusive), the ARGB color and the decoration
+     * flags ({@link #RUN_UNDERLINE}, {@link #RUN_LINETHROUGH}). The runs must
+     * be sorted and must not overlap. Text which is not covered by a run is
+     * drawn with the color passed to {@link #prepare(de.matthiasmann.twl.Color) }.
+     * 
+     * <p>The color is stored per vertex, so changing it does not flush the
+     * batch. Kerning is applied across run boundaries. Must be called
+     * between {@link #prepare(de.matthiasmann.twl.Color) } and
+     * {@link #cleanup() }.</p>
+     * 
+     * @param x the left edge of the text
+     * @param y the top edge of the text
+     * @param str the text
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @param runs the packed runs
+     * @param numRuns the number of runs
+     * @return the width of the text
+     */
+    public int drawTextRuns(int x, int y, CharSequence str, int start, int end, int[] runs, int numRuns) {
+        if(numRuns < 0 || numRuns * RUN_SIZE > runs.length) {
+            throw new IllegalArgumentException("numRuns");
+        }
+        if(!isLineVisible(y)) {
+            return computeTextWidth(str, start, end);
+        }
+        statistics.add(FontStatistics.GLYPH_LOOKUPS, end - start);
+        lastDrawnGlyph = null;
+        int pos = start;
+        int curX = x;
+        for(int run=0 ; run<numRuns && pos<end ; run++) {
+            final int off = run * RUN_SIZE;
+            final int runStart = Math.max(pos, runs[off]);
+            final int runEnd = Math.min(end, runs[off + 1]);
+            if(runStart >= runEnd) {
+                continue;
+            }
+            if(pos < runStart) {
+                setBatchColor(batchColor);
+                curX = drawSegment(x, curX, y, str, pos, runStart);
+            }
+            setBatchColor(runs[off + 2]);
+            final int runX = curX;
+            curX = drawSegment(x, curX, y, str, runStart, runEnd);
+            final int decoration = runs[off + 3];
+            if((decoration & RUN_UNDERLINE) != 0) {
+                drawLine(runX, y + underlineOffset, curX);
             }
+            if((decoration & RUN_LINETHROUGH) != 0) {
+                drawLine(runX, y + lineHeight/2, curX);
+            }
+            pos = runEnd;
+        }
+        setBatchColor(batchColor);
+        if(pos < end) {
+            curX = drawSegment(x, curX, y, str, pos, end);
         }
+        return curX - x;
+    }
+    
+    /**
+     * Draws a part of a line. Kerning continues from the glyph which was
+     * drawn last. In fixed pitch mode the glyphs are drawn on the character
+     * cells which are counted from originX.
+     * 
+     * @return the x position after the drawn text
+     */
+    private int drawSegment(int originX, int x, int y, CharSequence str, int start, int end) {
+        final int advance = getFixedAdvance();
+        if(advance > 0) {
+            int col = drawTextColumns(originX, y, str, start, end, (x - originX) / advance);
+            return originX + col * advance;
+        }
+        
+        final FloatBuffer va = vaBuffer;
+        final int left = clipX0;
+        final int right = clipX1;
+        Glyph lastGlyph = lastDrawnGlyph;
         while(start < end) {
             char ch = str.charAt(start++);
-            Glyph g = getGlyphRender(ch);
+            // glyphs outside of the visible area are only measured
+            Glyph g = (x < left || x >= right) ? getGlyph(ch) : getGlyphRender(ch);
             if(g != null) {
-                x += lastGlyph.getKerning(g.glyphIndex);
+                if(lastGlyph != null) {
+                    x += lastGlyph.getKerning(g.glyphIndex);
+                }
                 lastGlyph = g;
-                if(g.width > 0) {
+                if(g.width > 0 && x + g.xoffset + g.width > left && x + g.xoffset < right && admitGlyph(g)) {
                     if(!va.hasRemaining()) {
                         flush();
                     }
@@ -401,23 +1767,184 @@ public class TTFFontRenderer {
                 x += g.xadvance;
             }
         }
-        return x - startX;
+        lastDrawnGlyph = lastGlyph;
+        return x;
+    }
+    
+    private int drawTextColumns(int x, int y, CharSequence str, int start, int end, int col) {
+        final FloatBuffer va = vaBuffer;
+        final int advance = fixedAdvance;
+        final int tabs = tabSize;
+        // only the visible cells need glyphs
+        final int firstCol = clipped ? (clipX0 - x) / advance - 1 : 0;
+        final int lastCol = clipped ? (clipX1 - x) / advance : Integer.MAX_VALUE;
+        while(start < end) {
+            char ch = str.charAt(start++);
+            if(ch == '\t' && tabs > 0) {
+                col += tabs - col % tabs;
+                continue;
+            }
+            if(col >= firstCol && col <= lastCol) {
+                Glyph g = getGlyphRender(ch);
+                if(g != null && g.width > 0 && admitGlyph(g)) {
+                    if(!va.hasRemaining()) {
+                        flush();
+                    }
+                    g.draw(va, x + col * advance, y);
+                }
+            }
+            col++;
+        }
+        return col;
+    }
+    
+    /**
+     * Computes the width of a number without creating a string.
+     * 
+     * @param value the number
+     * @return the width of the number
+     * @see #drawNumber(int, int, long) 
+     */
+    public int computeNumberWidth(long value) {
+        return layoutNumber(value, 0, 0, 0, false);
+    }
+    
+    /**
+     * Computes the width of a fixed point number without creating a string.
+     * 
+     * @param value the number multiplied by 10^decimals
+     * @param decimals the number of digits after the decimal point
+     * @return the width of the number
+     * @see #drawNumber(int, int, long, int) 
+     */
+    public int computeNumberWidth(long value, int decimals) {
+        return layoutNumber(value, decimals, 0, 0, false);
+    }
+    
+    /**
+     * Draws a number without creating a string. The result is the same as
+     * drawing {@code Long.toString(value)}. This is meant for counters and
+     * timers which change every frame.
+     * 
+     * @param x the left edge of the number
+     * @param y the top edge of the number
+     * @param value the number
+     * @return the width of the number
+     */
+    public int drawNumber(int x, int y, long value) {
+        return drawNumber(x, y, value, 0);
+    }
+    
+    /**
+     * Draws a fixed point number without creating a string, eg a value of
+     * -1234 with 2 decimals is drawn as "-12.34" and 5 as "0.05".
+     * 
+     * @param x the left edge of the number
+     * @param y the top edge of the number
+     * @param value the number multiplied by 10^decimals
+     * @param decimals the number of digits after the decimal point
+     * @return the width of the number
+     */
+    public int drawNumber(int x, int y, long value, int decimals) {
+        int width = layoutNumber(value, decimals, 0, 0, false);
+        if(isLineVisible(y) && x + width > clipX0 && x < clipX1) {
+            layoutNumber(value, decimals, x + width, y, true);
+        }
+        return width;
+    }
+    
+    /**
+     * Walks the characters of a number from right to left - so that no
+     * digit buffer is needed - and optionally draws them.
+     * 
+     * @param value the number
+     * @param decimals the number of digits after the decimal point
+     * @param right the right edge of the number when drawing
+     * @param y the top edge when drawing
+     * @param draw true to draw the glyphs
+     * @return the width of the number
+     */
+    private int layoutNumber(long value, int decimals, int right, int y, boolean draw) {
+        if(decimals < 0) {
+            throw new IllegalArgumentException("decimals");
+        }
+        final Glyph[] table = getNumberGlyphs();
+        // use the negative range so that Long.MIN_VALUE works
+        long v = (value > 0) ? -value : value;
+        int x = right;
+        int digits = 0;
+        Glyph next = null;
+        do {
+            Glyph g = table[(int)-(v % 10)];
+            x = layoutNumberGlyph(g, next, x, y, draw);
+            next = g;
+            v /= 10;
+            if(++digits == decimals) {
+                g = table[NUMBER_POINT];
+                x = layoutNumberGlyph(g, next, x, y, draw);
+                next = g;
+            }
+        } while(v != 0 || digits <= decimals);
+        if(value < 0) {
+            x = layoutNumberGlyph(table[NUMBER_MINUS], next, x, y, draw);
+        }
+        return right - x;
+    }
+    
+    /**
+     * Places a glyph left of the glyph which follows it.
+     * @return the left position of the glyph
+     */
+    private int layoutNumberGlyph(Glyph g, Glyph next, int x, int y, boolean draw) {
+        if(next != null) {
+            x -= g.getKerning(next.glyphIndex);
+        }
+        x -= g.xadvance;
+        if(draw && g.width > 0 && admitGlyph(g)) {
+            if(!vaBuffer.hasRemaining()) {
+                flush();
+            }
+            g.draw(vaBuffer, x, y);
+        }
+        return x;
+    }
+    
+    /**
+     * Returns the glyphs for the digits, the minus sign and the decimal point.
+     * The table is created on the first call.
+     */
+    private Glyph[] getNumberGlyphs() {
+        Glyph[] table = numberGlyphs;
+        if(table == null) {
+            table = new Glyph[NUMBER_CHARS.length()];
+            for(int i=0 ; i<table.length ; i++) {
+                table[i] = getGlyph(NUMBER_CHARS.charAt(i));
+            }
+            numberGlyphs = table;
+        }
+        return table;
     }
     
     public int drawMultiLineText(int x, int y, CharSequence str, int width, HAlignment align) {
+        if(align != HAlignment.LEFT && !clipped) {
+            // layout first so that the lines are only walked once
+            if(multiLineLayout == null) {
+                multiLineLayout = new TextLayout();
+            }
+            layoutMultiLineText(str, width, align, multiLineLayout);
+            return drawLayout(x, y, multiLineLayout);
+        }
         int start = 0;
         int numLines = 0;
         while(start < str.length()) {
             int lineEnd = TextUtil.indexOf(str, '\n', start);
-            int xoff = 0;
-            if(align != HAlignment.LEFT) {
-                int lineWidth = computeTextWidth(str, start, lineEnd);
-                xoff = width - lineWidth;
-                if(align == HAlignment.CENTER) {
-                    xoff /= 2;
+            if(isLineVisible(y)) {
+                int xoff = 0;
+                if(align != HAlignment.LEFT) {
+                    xoff = computeAlignOffset(width, computeTextWidth(str, start, lineEnd), align);
                 }
+                drawText(x + xoff, y, str, start, lineEnd);
             }
-            drawText(x + xoff, y, str, start, lineEnd);
             start = lineEnd + 1;
             y += lineHeight;
             numLines++;
@@ -425,17 +1952,168 @@ public class TTFFontRenderer {
         return numLines;
     }
     
-    static class Row {
-        final int y;
-        final int height;
-        int x;
-
-        Row(int y, int height) {
-            this.y = y;
-            this.height = height;
+    /**
+     * Computes the layout of a single line of text.
+     * 
+     * @param str the text
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @param layout the layout object which receives the result
+     */
+    public void layoutText(CharSequence str, int start, int end, TextLayout layout) {
+        layout.reset(this);
+        layout.endLine(layoutLine(str, start, end, layout));
+        layout.clearGlyphs();
+    }
+    
+    /**
+     * Computes the layout of a multi line text in a single pass.
+     * The text is split into lines at '\n'.
+     * 
+     * @param str the text
+     * @param width the width used for alignment
+     * @param align the horizontal alignment of each line
+     * @param layout the layout object which receives the result
+     */
+    public void layoutMultiLineText(CharSequence str, int width, HAlignment align, TextLayout layout) {
+        layout.reset(this);
+        int start = 0;
+        while(start < str.length()) {
+            int lineEnd = TextUtil.indexOf(str, '\n', start);
+            layout.endLine(layoutLine(str, start, lineEnd, layout));
+            start = lineEnd + 1;
         }
+        for(int line=0 ; line<layout.numLines ; line++) {
+            layout.lineOffset[line] = computeAlignOffset(width, layout.lineWidth[line], align);
+        }
+        layout.clearGlyphs();
     }
     
+    /**
+     * Draws a text layout which was computed by this font renderer.
+     * 
+     * @param x the left edge of the layout
+     * @param y the top edge of the layout
+     * @param layout the layout to draw
+     * @return the number of drawn lines
+     */
+    public int drawLayout(int x, int y, TextLayout layout) {
+        if(layout.font != this) {
+            throw new IllegalArgumentException("layout was not created by this font renderer");
+        }
+        final FloatBuffer va = vaBuffer;
+        final Glyph[] layoutGlyphs = layout.glyphs;
+        final int[] glyphX = layout.glyphX;
+        final int left = clipX0;
+        final int right = clipX1;
+        for(int line=0,idx=0 ; line<layout.numLines && y<clipY1 ; line++) {
+            int end = layout.lineStart[line+1];
+            if(!isLineVisible(y)) {
+                idx = end;
+                y += lineHeight;
+                continue;
+            }
+            int lineX = x + layout.lineOffset[line];
+            for(; idx<end ; idx++) {
+                Glyph g = layoutGlyphs[idx];
+                int gx = lineX + glyphX[idx] + g.xoffset;
+                if(gx + g.width <= left || gx >= right || !admitGlyph(g)) {
+                    continue;
+                }
+                if(!va.hasRemaining()) {
+                    flush();
+                }
+                g.draw(va, lineX + glyphX[idx], y);
+            }
+            y += lineHeight;
+        }
+        return layout.numLines;
+    }
+    
+    /**
+     * Draws a word wrapped text. The lines are aligned inside the width
+     * which was used to wrap the text.
+     * 
+     * @param x the left edge of the text
+     * @param y the top edge of the text
+     * @param text the wrapped text - must have been created for this font renderer
+     * @param align the horizontal alignment of each line
+     * @return the number of drawn lines
+     */
+    public int drawWrappedText(int x, int y, WrappedText text, HAlignment align) {
+        if(text.getFont() != this) {
+            throw new IllegalArgumentException("text was not created for this font renderer");
+        }
+        final CharSequence str = text.getText();
+        final int width = text.getWidth();
+        final int numLines = text.getNumLines();
+        for(int line=0 ; line<numLines && y<clipY1 ; line++) {
+            if(isLineVisible(y)) {
+                int xoff = computeAlignOffset(width, text.getLineWidth(line), align);
+                drawText(x + xoff, y, str, text.getLineStart(line), text.getLineEnd(line));
+            }
+            y += lineHeight;
+        }
+        return numLines;
+    }
+    
+    private int layoutLine(CharSequence str, int start, int end, TextLayout layout) {
+        statistics.add(FontStatistics.GLYPH_LOOKUPS, end - start);
+        if(getFixedAdvance() > 0) {
+            return layoutLineColumns(str, start, end, layout);
+        }
+        int x = 0;
+        Glyph lastGlyph = null;
+        while(start < end) {
+            char ch = str.charAt(start++);
+            Glyph g = getGlyph(ch);
+            if(g != null) {
+                if(lastGlyph != null) {
+                    x += lastGlyph.getKerning(g.glyphIndex);
+                }
+                lastGlyph = g;
+                if(g.width > 0) {
+                    layout.addGlyph(g, x);
+                }
+                x += g.xadvance;
+            }
+        }
+        return x;
+    }
+    
+    private int layoutLineColumns(CharSequence str, int start, int end, TextLayout layout) {
+        final int advance = fixedAdvance;
+        final int tabs = tabSize;
+        int col = 0;
+        while(start < end) {
+            char ch = str.charAt(start++);
+            if(ch == '\t' && tabs > 0) {
+                col += tabs - col % tabs;
+                continue;
+            }
+            Glyph g = getGlyph(ch);
+            if(g != null && g.width > 0) {
+                layout.addGlyph(g, col * advance);
+            }
+            col++;
+        }
+        return col * advance;
+    }
+    
+    static int computeAlignOffset(int width, int lineWidth, HAlignment align) {
+        int xoff = width - lineWidth;
+        if(align == HAlignment.LEFT) {
+            xoff = 0;
+        } else if(align == HAlignment.CENTER) {
+            xoff /= 2;
+        }
+        return xoff;
+    }
+    
+    /**
+     * A glyph. The metrics and kerning are immutable and can be read from any
+     * thread. The texture coordinates are only used by the render thread.
+     */
     static class Glyph {
         final int glyphIndex;
         final short width;
@@ -443,24 +2121,57 @@ public class TTFFontRenderer {
         final short xoffset;
         final short yoffset;
         final short xadvance;
+        final short padding;
+        final boolean hasBitmap;
+        final Glyph source;
+        private final byte[][] kerning;
+        GlyphBitmapCache.Entry cachedBitmap;
+        int requests;
+        boolean uploaded;
         float tx0;
         float ty0;
         float tx1;
         float ty1;
-        private byte[][] kerning;
 
-        Glyph(int glyphIndex, int width, int height, int xoffset, int yoffset, int xadvance) {
+        Glyph(int glyphIndex, int width, int height, int xoffset, int yoffset, int xadvance, byte[][] kerning, Glyph source) {
+            this(glyphIndex, width, height, xoffset, yoffset, xadvance, 0, kerning, source);
+        }
+        
+        /**
+         * Creates a glyph whose quad includes a border around the glyph
+         * outline, like the spread of a distance field. The quad metrics
+         * include the border, the logical bounds exclude it.
+         */
+        Glyph(int glyphIndex, int width, int height, int xoffset, int yoffset, int xadvance, int padding, byte[][] kerning, Glyph source) {
             this.glyphIndex = glyphIndex;
             this.width = (short)width;
             this.height = (short)height;
             this.xoffset = (short)xoffset;
             this.yoffset = (short)yoffset;
             this.xadvance = (short)xadvance;
-            
-            if(width > 0 && height > 0) {
-                // mark glyph as not in texture
-                tx0 = -1f;
-            }
+            this.padding = (short)padding;
+            this.hasBitmap = width > 0 && height > 0;
+            this.kerning = kerning;
+            this.source = source;
+        }
+        
+        /**
+         * Returns the right edge of the glyph outline relative to the pen
+         * position - without the border.
+         */
+        final int getRight() {
+            return xoffset + width - padding;
+        }
+        
+        /**
+         * Returns the height of the glyph outline - without the border.
+         */
+        final int getBoundsHeight() {
+            return height - 2*padding;
+        }
+        
+        final boolean isUploadNeeded() {
+            return hasBitmap && !uploaded;
         }
         
         void set(int x, int y, float texWidthScale, float texHeightScale) {
@@ -480,6 +2191,15 @@ public class TTFFontRenderer {
             ty0 = fy * texHeightScale;
             tx1 = (fx + w) * texWidthScale;
             ty1 = (fy + h) * texHeightScale;
+            uploaded = true;
+        }
+        
+        void setTexCoords(Glyph src) {
+            tx0 = src.tx0;
+            ty0 = src.ty0;
+            tx1 = src.tx1;
+            ty1 = src.ty1;
+            uploaded = true;
         }
         
         final void draw(FloatBuffer va, int x, int y) {
@@ -493,6 +2213,13 @@ public class TTFFontRenderer {
               .put(tx1).put(ty0).put(x + w).put(y);
         }
         
+        final void drawRect(FloatBuffer va, int x0, int y0, int x1, int y1) {
+            va.put(tx0).put(ty0).put(x0).put(y0)
+              .put(tx0).put(ty1).put(x0).put(y1)
+              .put(tx1).put(ty1).put(x1).put(y1)
+              .put(tx1).put(ty0).put(x1).put(y0);
+        }
+        
         final int getKerning(int glyphIdx) {
             if(kerning != null) {
                 byte[] page = kerning[glyphIdx >>> LOG2_PAGE_SIZE];
@@ -29,7 +29,7 @@
  */
 package de.matthiasmann.twlfontmapper;
 
-import de.matthiasmann.javafreetype.FreeTypeFont;
+import de.matthiasmann.twl.Color;
 import de.matthiasmann.twl.renderer.Font;
 import de.matthiasmann.twl.renderer.FontMapper;
 import de.matthiasmann.twl.renderer.FontParameter;
@@ -38,13 +38,22 @@ import de.matthiasmann.twl.utils.StateSelect;
 import de.matthiasmann.twl.utils.StringList;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import org.lwjgl.LWJGLUtil;
 
 /**
@@ -54,30 +63,85 @@ import org.lwjgl.LWJGLUtil;
 public class TWLFontMapper implements FontMapper {
     
     private static final int STYLE_MASK = STYLE_BOLD | STYLE_ITALIC;
+    private static final Entry[] NO_ENTRIES = new Entry[0];
 
-    private final LWJGLRenderer renderer;
+    private final FontRenderBackend backend;
     private final HashMap<String, FontData> fontData;
     private final HashMap<String, Entry[]> families;
     private final HashMap<String, StringList> fontAlias;
+    private final HashMap<String, Entry[]> resolvedFamilies;
+    private final HashMap<FontKey, FontImpl> resolvedFonts;
+    private final HashMap<String, TTFFontRenderer> fallbackRenderers;
+    private final HashMap<String, String> contentKeys;
+    private final FontStatistics statistics;
+    private final CopyOnWriteArrayList<TTFFontRenderer> renderers;
     
     private Properties fontCache;
     private Runnable fontCacheChangedCB;
     private boolean fontCacheChanged;
+    private int distanceFieldSize;
+    private long memoryBudget;
+    private long idleUnloadTime;
+    private GlyphBitmapCache glyphBitmapCache;
+    private final UploadBudget uploadBudget;
+    private int sharedAtlasSize;
+    private GlyphAtlas sharedAtlas;
+    private GlyphAtlas sharedDistanceFieldAtlas;
+    private FontMapperStats mbean;
+    private ObjectName mbeanName;
+    private long frameStartBatches;
+    private volatile int batchesPerFrame;
     
-    private TWLFontMapper(LWJGLRenderer renderer) {
-        this.renderer = renderer;
+    private TWLFontMapper(FontRenderBackend backend) {
+        this.backend = backend;
         this.fontData = new HashMap<String, FontData>();
         this.families = new HashMap<String, Entry[]>();
         this.fontAlias = new HashMap<String, StringList>();
+        this.resolvedFamilies = new HashMap<String, Entry[]>();
+        this.resolvedFonts = new HashMap<FontKey, FontImpl>();
+        this.fallbackRenderers = new HashMap<String, TTFFontRenderer>();
+        this.contentKeys = new HashMap<String, String>();
+        this.statistics = new FontStatistics();
+        this.uploadBudget = new UploadBudget();
+        this.renderers = new CopyOnWriteArrayList<TTFFontRenderer>();
         
         assert STYLE_NORMAL == 0;
     }
     
     public static TWLFontMapper create(LWJGLRenderer renderer) {
-        TWLFontMapper fontMapper = new TWLFontMapper(renderer);
+        TWLFontMapper fontMapper = new TWLFontMapper(new LWJGLFontRenderBackend(renderer));
         renderer.setFontMapper(fontMapper);
         return fontMapper;
     }
+    
+    /**
+     * Creates a font mapper which draws with the given backend. The font
+     * mapper is not installed in any TWL renderer, its fonts can be used
+     * directly, eg to render text with a {@link CPUFontRenderBackend}.
+     * 
+     * @param backend the render backend
+     * @return the font mapper
+     */
+    public static TWLFontMapper create(FontRenderBackend backend) {
+        if(backend == null) {
+            throw new NullPointerException("backend");
+        }
+        return new TWLFontMapper(backend);
+    }
+
+    /**
+     * Returns the font renderer used by a font created by this font mapper.
+     * 
+     * @param font the font
+     * @return the font renderer or null if the font was not created by a TWLFontMapper
+     * @see ExtendedFont
+     */
+    public static TTFFontRenderer getFontRenderer(Font font) {
+        if(font instanceof ExtendedFont) {
+            return ((ExtendedFont)font).getFontRenderer();
+        }
+        return null;
+    }
 
     public Properties getFontCache() {
         return fontCache;
@@ -88,6 +152,289 @@ public class TWLFontMapper implements FontMapper {
         this.fontCacheChanged = false;
     }
 
+    public int getDistanceFieldSize() {
+        return distanceFieldSize;
+    }
+
+    /**
+     * Enables the distance field mode. In this mode the glyphs of a font are
+     * only rasterized once at the given reference size and stored as signed
+     * distance fields. All other sizes are drawn by scaling these glyphs and
+     * share one texture.
+     * 
+     * <p>This must be set before the first font is created.</p>
+     * 
+     * @param distanceFieldSize the reference size in pixels or 0 to disable the distance field mode
+     * @throws IllegalStateException if fonts have already been created
+     */
+    public void setDistanceFieldSize(int distanceFieldSize) {
+        if(distanceFieldSize < 0) {
+            throw new IllegalArgumentException("distanceFieldSize");
+        }
+        if(!fontData.isEmpty()) {
+            throw new IllegalStateException("fonts have already been created");
+        }
+        this.distanceFieldSize = distanceFieldSize;
+    }
+
+    public int getSharedAtlasSize() {
+        return sharedAtlasSize;
+    }
+
+    /**
+     * Lets all font renderers allocate their glyphs from one texture instead
+     * of creating a texture per font and size. Text in different fonts and
+     * sizes can then be drawn with one texture and one batch, see
+     * {@link TTFFontRenderer#prepare(de.matthiasmann.twl.Color) }.
+     * 
+     * <p>Distance field fonts use a second shared texture because it is
+     * filtered differently. When a shared texture is full it is cleared and
+     * the glyphs of all fonts are uploaded again when they are drawn.</p>
+     * 
+     * <p>This must be set before the first font is created.</p>
+     * 
+     * @param sharedAtlasSize the width and height of the shared texture or 0 to use one texture per font size
+     * @throws IllegalStateException if fonts have already been created
+     */
+    public void setSharedAtlasSize(int sharedAtlasSize) {
+        if(sharedAtlasSize < 0) {
+            throw new IllegalArgumentException("sharedAtlasSize");
+        }
+        if(!fontData.isEmpty()) {
+            throw new IllegalStateException("fonts have already been created");
+        }
+        this.sharedAtlasSize = sharedAtlasSize;
+        this.sharedAtlas = null;
+        this.sharedDistanceFieldAtlas = null;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the memory budget for all font renderers. When the estimated
+     * memory usage is over budget then font sizes which are not used by any
+     * font are destroyed in least recently used order. A font file without
+     * any remaining font renderer is closed and reloaded when it is needed
+     * again.
+     * 
+     * <p>The shared textures are not part of the budget as destroying font
+     * sizes does not shrink them. Instead a shared texture is released when
+     * most of it's glyphs belong to destroyed font sizes and is then filled
+     * again with the glyphs in use.</p>
+     * 
+     * @param memoryBudget the budget in bytes or 0 for no limit
+     * @see #getMemoryUsage() 
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if(memoryBudget < 0) {
+            throw new IllegalArgumentException("memoryBudget");
+        }
+        this.memoryBudget = memoryBudget;
+        checkMemoryBudget();
+    }
+    
+    /**
+     * Returns the glyph bitmap cache shared by all font renderers.
+     * @return the cache or null if it is disabled
+     * @see #setGlyphBitmapCacheSize(long) 
+     */
+    public GlyphBitmapCache getGlyphBitmapCache() {
+        return glyphBitmapCache;
+    }
+    
+    /**
+     * Enables a CPU side cache of the rasterized glyph bitmaps which is
+     * shared by all font renderers. Glyphs are uploaded from this cache
+     * instead of being rasterized again after a glyph texture was flushed.
+     * The cache is not part of the memory budget.
+     * 
+     * @param size the size of the cache in bytes or 0 to disable it
+     * @see GlyphBitmapCache#getHitRate() 
+     */
+    public void setGlyphBitmapCacheSize(long size) {
+        if(size < 0) {
+            throw new IllegalArgumentException("size");
+        }
+        if(glyphBitmapCache != null) {
+            glyphBitmapCache.clear();
+        }
+        glyphBitmapCache = (size > 0) ? new GlyphBitmapCache(size) : null;
+        for(TTFFontRenderer fr : renderers) {
+            fr.setGlyphBitmapCache(glyphBitmapCache);
+        }
+    }
+    
+    public int getMaxUploadGlyphs() {
+        return uploadBudget.maxGlyphs;
+    }
+
+    public long getMaxUploadNanos() {
+        return uploadBudget.maxNanos;
+    }
+
+    /**
+     * Limits how many glyphs all font renderers together upload per frame. This
+     * prevents long frames when a lot of new text is shown at once - the
+     * missing glyphs appear over the next frames instead.
+     * 
+     * <p>When a budget is set {@link #nextFrame() } must be called once per frame.</p>
+     * 
+     * @param maxGlyphs the maximum number of glyphs per frame or 0 for no limit
+     * @param maxNanos the maximum time per frame in nanoseconds or 0 for no limit
+     * @see TTFFontRenderer#setUploadBudget(int, long) 
+     */
+    public void setUploadBudget(int maxGlyphs, long maxNanos) {
+        uploadBudget.setLimits(maxGlyphs, maxNanos);
+    }
+    
+    /**
+     * Starts a new frame for the shared upload budget. It also
+     * updates the per frame statistics and the snapshot of the MBean.
+     * @see TTFFontRenderer#nextFrame() 
+     * @see #getBatchesPerFrame() 
+     */
+    public void nextFrame() {
+        long batches = statistics.getBatches();
+        batchesPerFrame = (int)Math.max(0, Math.min(Integer.MAX_VALUE, batches - frameStartBatches));
+        frameStartBatches = batches;
+        uploadBudget.nextFrame();
+        if(mbean != null) {
+            mbean.update(renderers, false);
+        }
+    }
+    
+    /**
+     * Returns the number of vertex batches which were flushed by all font
+     * renderers in the last frame. This is only updated when
+     * {@link #nextFrame() } is called once per frame.
+     * @return the number of batches of the last frame
+     */
+    public int getBatchesPerFrame() {
+        return batchesPerFrame;
+    }
+    
+    /**
+     * Checks if all glyphs which have been drawn by any font are in the texture.
+     * @return true if no glyphs are waiting for upload
+     * @see TTFFontRenderer#isFullyResolved() 
+     */
+    public boolean isFullyResolved() {
+        for(TTFFontRenderer fr : renderers) {
+            if(!fr.isFullyResolved()) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Returns the statistics of all font renderers created by this font mapper.
+     * @return the statistics
+     */
+    public FontStatistics getStatistics() {
+        return statistics;
+    }
+    
+    /**
+     * Registers the statistics of this font mapper with the platform MBean server.
+     * Must be called from the render thread. The font renderer state of the
+     * MBean is updated by {@link #nextFrame() }. An MBean which was registered
+     * before is unregistered, {@link #destroy() } unregisters the MBean.
+     * 
+     * @param name the name which identifies this font mapper
+     * @return the object name of the MBean
+     * @throws JMException if the MBean could not be registered
+     * @see FontMapperStatsMBean
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        ObjectName objectName = new ObjectName("de.matthiasmann.twlfontmapper:type=TWLFontMapper,name="
+                + ObjectName.quote(name));
+        FontMapperStats stats = new FontMapperStats(this, statistics);
+        stats.update(renderers, true);
+        unregisterMBean();
+        ManagementFactory.getPlatformMBeanServer().registerMBean(stats, objectName);
+        mbean = stats;
+        mbeanName = objectName;
+        return objectName;
+    }
+    
+    private void unregisterMBean() {
+        if(mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException ex) {
+                getLogger().log(Level.WARNING, "Could not unregister MBean", ex);
+            }
+            mbean = null;
+            mbeanName = null;
+        }
+    }
+    
+    public long getIdleUnloadTime() {
+        return idleUnloadTime;
+    }
+
+    /**
+     * Sets the time after which the font file and the FreeType face of a
+     * font are released when no new glyph was needed. Already created glyphs
+     * can still be measured and drawn. The font is loaded again from its URL
+     * on the next glyph miss.
+     * 
+     * <p>Fonts are only released by {@link #unloadIdleFonts() }.</p>
+     * 
+     * @param idleUnloadTime the idle time in milliseconds or 0 to keep fonts loaded
+     */
+    public void setIdleUnloadTime(long idleUnloadTime) {
+        if(idleUnloadTime < 0) {
+            throw new IllegalArgumentException("idleUnloadTime");
+        }
+        this.idleUnloadTime = idleUnloadTime;
+    }
+    
+    /**
+     * Releases the font file and FreeType face of all fonts which had no
+     * glyph miss within the idle unload time. This should be called
+     * periodically, eg once per second.
+     * 
+     * @return the number of fonts which have been released
+     * @see #setIdleUnloadTime(long) 
+     */
+    public int unloadIdleFonts() {
+        if(idleUnloadTime <= 0) {
+            return 0;
+        }
+        long idleTime = idleUnloadTime * 1000000L;
+        long now = System.nanoTime();
+        int count = 0;
+        for(FontData fd : fontData.values()) {
+            if(fd.unloadIfIdle(idleTime, now)) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Returns the estimated memory usage of all font renderers and of the
+     * shared textures
+     * @return the estimated memory usage in bytes
+     * @see TTFFontRenderer#getMemoryUsage() 
+     */
+    public long getMemoryUsage() {
+        long usage = 0;
+        for(FontData fd : fontData.values()) {
+            for(TTFFontRenderer fr : fd.fontRenderers.values()) {
+                usage += fr.getMemoryUsage();
+            }
+        }
+        for(TTFFontRenderer fr : fallbackRenderers.values()) {
+            usage += fr.getMemoryUsage();
+        }
+        return usage + getSharedAtlasMemoryUsage();
+    }
+
     public Runnable getFontCacheChangedCB() {
         return fontCacheChangedCB;
     }
@@ -115,6 +462,7 @@ public class TWLFontMapper implements FontMapper {
             }
         }
         fontAlias.put(from, new StringList(to, list));
+        invalidateResolvedFonts();
     }
     
     public Font getFont(StringList fontFamilies, int fontSize, int style,
@@ -135,22 +483,21 @@ public class TWLFontMapper implements FontMapper {
             throw new IllegalArgumentException("select.getNumExpressions() + 1 != parameterList.length");
         }
         
+        FontKey key = new FontKey(fontFamilies, fontSize, style, select, parameterList);
+        FontImpl cachedFont = resolvedFonts.get(key);
+        if(cachedFont != null) {
+            cachedFont.acquire();
+            cachedFont.getFontRenderer().lastUsed = System.nanoTime();
+            return cachedFont;
+        }
+        
         int urlIdx = style & STYLE_MASK;
+        StringList allFamilies = fontFamilies;
         Entry fallback = null;
         Entry fontEntry = null;
         
         do {
-            String family = fontFamilies.getValue().toLowerCase(Locale.ENGLISH);
-            Entry[] entries = families.get(family);
-            
-            if(entries == null) {
-                StringList aliasList = fontAlias.get(family);
-                while(aliasList != null && entries == null) {
-                    entries = families.get(aliasList.getValue());
-                    aliasList = aliasList.getNext();
-                }
-            }
-            
+            Entry[] entries = resolveFamily(fontFamilies.getValue());
             if(entries != null) {
                 fontEntry = entries[urlIdx];
                 if(fontEntry != null) {
@@ -169,40 +516,126 @@ public class TWLFontMapper implements FontMapper {
         }
         if(fontEntry != null) {
             TTFFontRenderer fontRenderer = getFontRenderer(fontEntry.url, fontSize);
+            if(fontRenderer != null && distanceFieldSize == 0) {
+                fontRenderer = getFallbackRenderer(fontRenderer, fontEntry, allFamilies, urlIdx, fontSize);
+            }
             if(fontRenderer != null) {
-                return new FontImpl(fontRenderer, select, parameterList);
+                fontRenderer.lastUsed = System.nanoTime();
+                FontImpl font = new FontImpl(fontRenderer, select, parameterList);
+                font.mapper = this;
+                font.key = key;
+                resolvedFonts.put(key, font);
+                checkMemoryBudget();
+                return font;
             }
         }
         
         return null;
     }
     
+    /**
+     * Returns the font entries of a family after resolving aliases. The
+     * result is cached until fonts or aliases are registered.
+     * 
+     * @param family the family name
+     * @return the entries or null
+     */
+    private Entry[] resolveFamily(String family) {
+        Entry[] entries = resolvedFamilies.get(family);
+        if(entries == null) {
+            String name = family.toLowerCase(Locale.ENGLISH);
+            entries = families.get(name);
+            
+            if(entries == null) {
+                StringList aliasList = fontAlias.get(name);
+                while(aliasList != null && entries == null) {
+                    entries = families.get(aliasList.getValue());
+                    aliasList = aliasList.getNext();
+                }
+            }
+            
+            if(entries == null) {
+                entries = NO_ENTRIES;
+            }
+            resolvedFamilies.put(family, entries);
+        }
+        return (entries != NO_ENTRIES) ? entries : null;
+    }
+    
+    /**
+     * Forgets the fonts which were returned by getFont. Fonts which are still
+     * in use stay valid, but later requests create new font objects.
+     * 
+     * <p>Fonts whose parameters depend on a state select are only shared
+     * when the same StateSelect object is passed again. Call this after a
+     * theme was reloaded so that the entries of the old theme are released.</p>
+     */
+    public void clearResolvedFonts() {
+        resolvedFonts.clear();
+    }
+    
+    private void invalidateResolvedFonts() {
+        if(!resolvedFamilies.isEmpty()) {
+            resolvedFamilies.clear();
+        }
+        if(!resolvedFonts.isEmpty()) {
+            resolvedFonts.clear();
+        }
+    }
+    
+    void fontDestroyed(FontImpl font) {
+        if(resolvedFonts.get(font.key) == font) {
+            resolvedFonts.remove(font.key);
+        }
+    }
+    
+    /**
+     * Returns the key which identifies the font file. Font files with the
+     * same content share one FontData independent of their URL.
+     * 
+     * @param url the font URL
+     * @return the content key if known, otherwise the URL
+     */
+    private String getFontIdentity(URL url) {
+        String urlKey = url.toString();
+        String contentKey = contentKeys.get(urlKey);
+        return (contentKey != null) ? contentKey : urlKey;
+    }
+    
     private TTFFontRenderer getFontRenderer(URL url, int fontSize) {
         try {
-            String fdKey = url.toString();
+            String urlKey = url.toString();
+            String fdKey = contentKeys.get(urlKey);
 
-            FontData fd = fontData.get(fdKey);
-            if(fd != null) {
-                TTFFontRenderer fontRenderer = fd.getFontRenderer(fontSize);
-                if(fontRenderer != null) {
-                    return fontRenderer;
-                }
-            } else {
+            FontData fd = (fdKey != null) ? fontData.get(fdKey) : null;
+            if(fd == null) {
                 //System.out.println("Loading font " + url);
                 //long startTime = System.nanoTime();
                 fd = new FontData(url);
                 //System.out.println((System.nanoTime()-startTime) / 1000 + " us");
-                fontData.put(fdKey, fd);
+                fdKey = fd.getContentKey();
+                contentKeys.put(urlKey, fdKey);
+                
+                FontData existing = fontData.get(fdKey);
+                if(existing != null) {
+                    // same font reached through a different URL
+                    fd.destroy();
+                    fd = existing;
+                } else {
+                    fontData.put(fdKey, fd);
+                }
             }
-
-            //System.out.println("Creating font size " + fontSize + " for " + url);
-            FreeTypeFont font = fd.getFont();
-            FreeTypeFont.Size size = font.createNewSize();
-            font.setActiveSize(size);
-            font.setPixelSize(0, fontSize);
-            TTFFontRenderer fontRenderer = new TTFFontRenderer(renderer, fd, size);
-            fd.setFontRenderer(fontSize, fontRenderer);
             
+            if(distanceFieldSize > 0) {
+                return getDistanceFieldRenderer(fd, fontSize);
+            }
+
+            TTFFontRenderer fontRenderer = fd.getFontRenderer(fontSize);
+            if(fontRenderer == null) {
+                //System.out.println("Creating font size " + fontSize + " for " + url);
+                fontRenderer = createFontRenderer(fd, fontSize, 0);
+                fd.setFontRenderer(fontSize, fontRenderer);
+            }
             return fontRenderer;
         } catch (IOException ex) {
             getLogger().log(Level.SEVERE, null, ex);
@@ -210,6 +643,124 @@ public class TWLFontMapper implements FontMapper {
         }
     }
     
+    /**
+     * Returns a font renderer which resolves code points which are not
+     * mapped by the primary font from the fonts of the remaining families
+     * in the order they are listed.
+     * 
+     * @param primary the font renderer of the selected font
+     * @param primaryEntry the entry of the selected font
+     * @param fontFamilies all requested families
+     * @param urlIdx the requested style
+     * @param fontSize the font size
+     * @return the primary font renderer if there are no fallback fonts
+     */
+    private TTFFontRenderer getFallbackRenderer(TTFFontRenderer primary, Entry primaryEntry,
+            StringList fontFamilies, int urlIdx, int fontSize) {
+        String primaryKey = getFontIdentity(primaryEntry.url);
+        ArrayList<String> urls = new ArrayList<String>();
+        ArrayList<URL> fallbackURLs = new ArrayList<URL>();
+        for(StringList l=fontFamilies ; l!=null ; l=l.getNext()) {
+            Entry[] entries = resolveFamily(l.getValue());
+            if(entries != null) {
+                Entry entry = entries[urlIdx];
+                if(entry == null) {
+                    entry = entries[STYLE_NORMAL];
+                }
+                if(entry != null) {
+                    String url = getFontIdentity(entry.url);
+                    if(!url.equals(primaryKey) && !urls.contains(url)) {
+                        urls.add(url);
+                        fallbackURLs.add(entry.url);
+                    }
+                }
+            }
+        }
+        if(urls.isEmpty()) {
+            return primary;
+        }
+        
+        StringBuilder sb = new StringBuilder(primaryKey);
+        sb.append('\n').append(fontSize);
+        for(String url : urls) {
+            sb.append('\n').append(url);
+        }
+        String key = sb.toString();
+        
+        TTFFontRenderer fontRenderer = fallbackRenderers.get(key);
+        if(fontRenderer == null) {
+            ArrayList<TTFFontRenderer> fallbacks = new ArrayList<TTFFontRenderer>();
+            for(URL url : fallbackURLs) {
+                TTFFontRenderer fallback = getFontRenderer(url, fontSize);
+                if(fallback != null) {
+                    fallbacks.add(fallback);
+                }
+            }
+            if(fallbacks.isEmpty()) {
+                return primary;
+            }
+            fontRenderer = addRenderer(new TTFFontRenderer(primary,
+                    fallbacks.toArray(new TTFFontRenderer[fallbacks.size()])));
+            fallbackRenderers.put(key, fontRenderer);
+        }
+        return fontRenderer;
+    }
+    
+    private TTFFontRenderer getDistanceFieldRenderer(FontData fd, int fontSize) {
+        // distance field renderers use negative keys
+        TTFFontRenderer fontRenderer = fd.getFontRenderer(-fontSize);
+        if(fontRenderer == null) {
+            TTFFontRenderer source = fd.getFontRenderer(-distanceFieldSize);
+            if(source == null) {
+                source = createFontRenderer(fd, distanceFieldSize, Math.max(2, distanceFieldSize / 8));
+                fd.setFontRenderer(-distanceFieldSize, source);
+                if(fontSize == distanceFieldSize) {
+                    return source;
+                }
+            }
+            fontRenderer = addRenderer(new TTFFontRenderer(source, fontSize / (float)distanceFieldSize));
+            fd.setFontRenderer(-fontSize, fontRenderer);
+        }
+        return fontRenderer;
+    }
+    
+    private TTFFontRenderer createFontRenderer(FontData fd, int fontSize, int distanceFieldSpread) {
+        return addRenderer(new TTFFontRenderer(backend, getSharedAtlas(distanceFieldSpread > 0),
+                fd, fontSize, distanceFieldSpread));
+    }
+    
+    private GlyphAtlas getSharedAtlas(boolean distanceField) {
+        if(sharedAtlasSize <= 0) {
+            return null;
+        }
+        if(distanceField) {
+            if(sharedDistanceFieldAtlas == null) {
+                sharedDistanceFieldAtlas = new GlyphAtlas(backend, sharedAtlasSize, sharedAtlasSize, true, true);
+                sharedDistanceFieldAtlas.statistics = statistics;
+            }
+            return sharedDistanceFieldAtlas;
+        }
+        if(sharedAtlas == null) {
+            sharedAtlas = new GlyphAtlas(backend, sharedAtlasSize, sharedAtlasSize, false, true);
+            sharedAtlas.statistics = statistics;
+        }
+        return sharedAtlas;
+    }
+    
+    private TTFFontRenderer addRenderer(TTFFontRenderer fontRenderer) {
+        fontRenderer.getStatistics().parent = statistics;
+        fontRenderer.setGlyphBitmapCache(glyphBitmapCache);
+        fontRenderer.uploadBudget = uploadBudget;
+        renderers.add(fontRenderer);
+        return fontRenderer;
+    }
+    
+    private void evictRenderer(TTFFontRenderer fontRenderer) {
+        fontRenderer.destroy();
+        renderers.remove(fontRenderer);
+        statistics.increment(FontStatistics.EVICTIONS);
+    }
+    
     public boolean registerFont(String fontFamily, int style, URL url) {
         if(fontFamily.indexOf(',') >= 0) {
             throw new IllegalArgumentException("fontFamily must not contain a ','");
@@ -220,6 +771,8 @@ public class TWLFontMapper implements FontMapper {
         
         boolean isWeak = (style & REGISTER_WEAK) == REGISTER_WEAK;
         
+        invalidateResolvedFonts();
+        
         style &= STYLE_MASK;
         
         fontFamily = fontFamily.toLowerCase(Locale.ENGLISH);
@@ -326,7 +879,9 @@ public class TWLFontMapper implements FontMapper {
     }
     
     private boolean doRegisterFont(URL url, String fileName, long lastModified, long fileSize, String targetFontFamily) throws IOException {
-        String[] names = FontData.getFontName(url);
+        ByteBuffer bb = FontData.readFontFile(url);
+        String[] names = FontData.getFontName(bb);
+        String contentKey = FontData.computeContentKey(bb);
         int style = 0;
 
         //System.out.println(Arrays.toString(names));
@@ -347,10 +902,11 @@ public class TWLFontMapper implements FontMapper {
             }
         }
 
+        contentKeys.put(url.toString(), contentKey);
         boolean result = registerFont((targetFontFamily != null) ? targetFontFamily : family, style, url);
 
         if(fontCache != null && fileName != null) {
-            fontCache.put(fileName, String.format("%d,%d,%d,%s", lastModified, fileSize, style, family));
+            fontCache.put(fileName, String.format("%d,%d,%d,%s,%s", lastModified, fileSize, style, contentKey, family));
             fontCacheChanged = true;
         }
 
@@ -394,12 +950,89 @@ public class TWLFontMapper implements FontMapper {
         
         int cacheStyle = Integer.parseInt(cacheEntry.substring(idx1+1, idx2));
         
-        String family = cacheEntry.substring(idx2+1);
+        int idx3 = cacheEntry.indexOf(',', idx2+1);
+        if(idx3 < 0) {
+            return NOT_IN_CACHE;
+        }
+        
+        String contentKey = cacheEntry.substring(idx2+1, idx3);
+        if(!FontData.isContentKey(contentKey)) {
+            // entry was written before content keys were stored
+            return NOT_IN_CACHE;
+        }
+        contentKeys.put(url.toString(), contentKey);
+        
+        String family = cacheEntry.substring(idx3+1);
         return registerFont(
                 (targetFontFamily != null) ? targetFontFamily : family,
                 cacheStyle, url) ? SUCCEEDED : FAILED;
     }
     
+    private void checkMemoryBudget() {
+        if(memoryBudget <= 0) {
+            return;
+        }
+        // the shared textures can't be reduced by evicting font renderers
+        long usage = getMemoryUsage() - getSharedAtlasMemoryUsage();
+        
+        // fallback renderers keep their fonts alive - release unused ones first
+        for(Iterator<TTFFontRenderer> iter=fallbackRenderers.values().iterator() ; usage > memoryBudget && iter.hasNext() ;) {
+            TTFFontRenderer fr = iter.next();
+            if(fr.refCount == 0) {
+                usage -= fr.getMemoryUsage();
+                evictRenderer(fr);
+                iter.remove();
+            }
+        }
+        
+        while(usage > memoryBudget) {
+            FontData lruFontData = null;
+            Integer lruKey = null;
+            TTFFontRenderer lru = null;
+            for(FontData fd : fontData.values()) {
+                for(Map.Entry<Integer, TTFFontRenderer> e : fd.fontRenderers.entrySet()) {
+                    TTFFontRenderer fr = e.getValue();
+                    if(fr.refCount == 0 && (lru == null || fr.lastUsed < lru.lastUsed)) {
+                        lruFontData = fd;
+                        lruKey = e.getKey();
+                        lru = fr;
+                    }
+                }
+            }
+            if(lru == null) {
+                // everything is in use
+                break;
+            }
+            
+            usage -= lru.getMemoryUsage();
+            evictRenderer(lru);
+            lruFontData.fontRenderers.remove(lruKey);
+            
+            if(lruFontData.fontRenderers.isEmpty()) {
+                fontData.values().remove(lruFontData);
+                lruFontData.destroy();
+            }
+        }
+        
+        if(sharedAtlas != null) {
+            sharedAtlas.reclaim();
+        }
+        if(sharedDistanceFieldAtlas != null) {
+            sharedDistanceFieldAtlas.reclaim();
+        }
+    }
+    
+    private long getSharedAtlasMemoryUsage() {
+        long usage = 0;
+        if(sharedAtlas != null) {
+            usage += sharedAtlas.getMemoryUsage();
+        }
+        if(sharedDistanceFieldAtlas != null) {
+            usage += sharedDistanceFieldAtlas.getMemoryUsage();
+        }
+        return usage;
+    }
+    
     private void checkFontCacheChanged() {
         if(fontCacheChanged && fontCacheChangedCB != null) {
             fontCacheChanged = false;
@@ -408,6 +1041,12 @@ public class TWLFontMapper implements FontMapper {
     }
     
     public void destroy() {
+        unregisterMBean();
+        resolvedFonts.clear();
+        for(TTFFontRenderer f : fallbackRenderers.values()) {
+            f.destroy();
+        }
+        fallbackRenderers.clear();
         for(FontData fd : fontData.values()) {
             for(TTFFontRenderer f : fd.fontRenderers.values()) {
                 f.destroy();
@@ -415,6 +1054,10 @@ public class TWLFontMapper implements FontMapper {
             fd.destroy();
         }
         fontData.clear();
+        renderers.clear();
+        if(glyphBitmapCache != null) {
+            glyphBitmapCache.clear();
+        }
     }
     
     Logger getLogger() {
@@ -430,4 +1073,74 @@ public class TWLFontMapper implements FontMapper {
             this.weak = weak;
         }
     }
+    
+    /**
+     * The key of a getFont request. Families, sizes and the font parameters
+     * used by {@link FontImpl} are compared by value. A state select without
+     * expressions always selects the first parameter and is ignored, other
+     * state selects are compared by identity.
+     */
+    static final class FontKey {
+        final String families;
+        final int fontSize;
+        final int style;
+        final StateSelect select;
+        final int[] params;
+        final int hashCode;
+
+        FontKey(StringList fontFamilies, int fontSize, int style, StateSelect select, FontParameter[] parameterList) {
+            StringBuilder sb = new StringBuilder();
+            for(StringList l=fontFamilies ; l!=null ; l=l.getNext()) {
+                if(sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(l.getValue());
+            }
+            this.families = sb.toString();
+            this.fontSize = fontSize;
+            this.style = style;
+            this.select = (select.getNumExpressions() > 0) ? select : null;
+            this.params = new int[parameterList.length * 2];
+            for(int i=0 ; i<parameterList.length ; i++) {
+                FontParameter p = parameterList[i];
+                Color color = p.get(FontParameter.COLOR);
+                int flags = 0;
+                if(Boolean.TRUE.equals(p.get(FontParameter.UNDERLINE))) {
+                    flags |= 1;
+                }
+                if(Boolean.TRUE.equals(p.get(FontParameter.LINETHROUGH))) {
+                    flags |= 2;
+                }
+                if(color == null) {
+                    flags |= 4;
+                }
+                params[i*2 + 0] = (color != null) ? color.toARGB() : 0;
+                params[i*2 + 1] = flags;
+            }
+            
+            int h = families.hashCode();
+            h = h * 31 + fontSize;
+            h = h * 31 + style;
+            h = h * 31 + System.identityHashCode(this.select);
+            h = h * 31 + Arrays.hashCode(params);
+            this.hashCode = h;
+        }
+
+        public boolean equals(Object obj) {
+            if(!(obj instanceof FontKey)) {
+                return false;
+            }
+            FontKey other = (FontKey)obj;
+            if(hashCode != other.hashCode || fontSize != other.fontSize ||
+                    style != other.style || select != other.select ||
+                    !families.equals(other.families)) {
+                return false;
+            }
+            return Arrays.equals(params, other.params);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
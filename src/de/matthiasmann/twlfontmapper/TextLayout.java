@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+/**
+ * The result of a text layout - the resolved glyphs and their positions
+ * grouped into lines.
+ * 
+ * <p>A layout is created by {@link TTFFontRenderer#layoutText(java.lang.CharSequence, int, int, de.matthiasmann.twlfontmapper.TextLayout) }
+ * or {@link TTFFontRenderer#layoutMultiLineText(java.lang.CharSequence, int, de.matthiasmann.twl.HAlignment, de.matthiasmann.twlfontmapper.TextLayout) }
+ * and can be drawn any number of times with {@link TTFFontRenderer#drawLayout(int, int, de.matthiasmann.twlfontmapper.TextLayout) }
+ * without resolving the glyphs again. The buffers are reused when the layout
+ * is computed again.</p>
+ * 
+ * @author Matthias Mann
+ */
+public class TextLayout {
+    
+    TTFFontRenderer font;
+    TTFFontRenderer.Glyph[] glyphs;
+    int[] glyphX;
+    int numGlyphs;
+    
+    int[] lineStart;
+    int[] lineWidth;
+    int[] lineOffset;
+    int numLines;
+    int width;
+
+    public TextLayout() {
+        glyphs = new TTFFontRenderer.Glyph[64];
+        glyphX = new int[64];
+        lineStart = new int[9];
+        lineWidth = new int[8];
+        lineOffset = new int[8];
+    }
+
+    /**
+     * Returns the font renderer which was used to compute this layout
+     * @return the font renderer or null if no layout was computed yet
+     */
+    public TTFFontRenderer getFont() {
+        return font;
+    }
+
+    public int getNumLines() {
+        return numLines;
+    }
+
+    /**
+     * Returns the width of the widest line
+     * @return the width of the widest line
+     */
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return (font != null) ? numLines * font.lineHeight : 0;
+    }
+    
+    public int getLineWidth(int line) {
+        checkLine(line);
+        return lineWidth[line];
+    }
+    
+    /**
+     * Returns the X offset of the line caused by the alignment
+     * @param line the line index
+     * @return the X offset of the line
+     */
+    public int getLineOffset(int line) {
+        checkLine(line);
+        return lineOffset[line];
+    }
+    
+    void reset(TTFFontRenderer font) {
+        this.font = font;
+        this.numGlyphs = 0;
+        this.numLines = 0;
+        this.width = 0;
+        this.lineStart[0] = 0;
+    }
+    
+    void addGlyph(TTFFontRenderer.Glyph g, int x) {
+        if(numGlyphs == glyphs.length) {
+            int newSize = numGlyphs * 2;
+            TTFFontRenderer.Glyph[] newGlyphs = new TTFFontRenderer.Glyph[newSize];
+            int[] newGlyphX = new int[newSize];
+            System.arraycopy(glyphs, 0, newGlyphs, 0, numGlyphs);
+            System.arraycopy(glyphX, 0, newGlyphX, 0, numGlyphs);
+            glyphs = newGlyphs;
+            glyphX = newGlyphX;
+        }
+        glyphs[numGlyphs] = g;
+        glyphX[numGlyphs] = x;
+        numGlyphs++;
+    }
+    
+    void endLine(int lineWidth) {
+        if(numLines == this.lineWidth.length) {
+            int newSize = numLines * 2;
+            this.lineStart = copyOf(this.lineStart, newSize + 1);
+            this.lineWidth = copyOf(this.lineWidth, newSize);
+            this.lineOffset = copyOf(this.lineOffset, newSize);
+        }
+        this.lineWidth[numLines] = lineWidth;
+        this.lineOffset[numLines] = 0;
+        this.lineStart[++numLines] = numGlyphs;
+        this.width = Math.max(width, lineWidth);
+    }
+    
+    void clearGlyphs() {
+        // release references to glyphs from the last layout
+        for(int i=numGlyphs ; i<glyphs.length && glyphs[i] != null ; i++) {
+            glyphs[i] = null;
+        }
+    }
+    
+    private void checkLine(int line) {
+        if(line < 0 || line >= numLines) {
+            throw new IndexOutOfBoundsException("line");
+        }
+    }
+    
+    private static int[] copyOf(int[] src, int newSize) {
+        int[] tmp = new int[newSize];
+        System.arraycopy(src, 0, tmp, 0, src.length);
+        return tmp;
+    }
+}
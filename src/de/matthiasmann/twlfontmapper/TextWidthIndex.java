@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+/**
+ * A prefix sum index of the glyph positions of a text.
+ * 
+ * <p>Once build the text width of any range and the number of glyphs which
+ * fit into a given width can be computed in O(log n) instead of walking
+ * the text again. The index can be updated incrementally when characters
+ * are inserted or deleted.</p>
+ * 
+ * <p>The results are identical to {@link TTFFontRenderer#computeTextWidth(java.lang.CharSequence, int, int) }
+ * and {@link TTFFontRenderer#computeVisibleGlpyhs(java.lang.CharSequence, int, int, int) }
+ * including kerning. For fixed pitch font renderers the queries are answered
+ * from the character cells like the font renderer does, which also expands
+ * tabs relative to the start of the range.</p>
+ * 
+ * @author Matthias Mann
+ */
+public class TextWidthIndex {
+    
+    private final TTFFontRenderer font;
+    
+    private CharSequence text;
+    private short[] advance;
+    private short[] kerning;
+    private short[] extent;
+    private int[] endPos;
+    private int[] maxRight;
+    private int length;
+    private int validLength;
+
+    public TextWidthIndex(TTFFontRenderer font) {
+        if(font == null) {
+            throw new NullPointerException("font");
+        }
+        this.font = font;
+        this.advance = new short[16];
+        this.kerning = new short[16];
+        this.extent = new short[16];
+    }
+
+    public TTFFontRenderer getFont() {
+        return font;
+    }
+    
+    /**
+     * Returns the number of characters in the index
+     * @return the number of characters in the index
+     */
+    public int getLength() {
+        return length;
+    }
+    
+    /**
+     * Rebuilds the index for the complete text.
+     * 
+     * @param str the text
+     */
+    public void setText(CharSequence str) {
+        length = 0;
+        validLength = 0;
+        insert(str, 0, str.length());
+    }
+    
+    /**
+     * Updates the index after characters have been inserted into the text.
+     * 
+     * @param str the text after the insert
+     * @param start the index of the first inserted character
+     * @param count the number of inserted characters
+     */
+    public void insert(CharSequence str, int start, int count) {
+        if(start < 0 || start > length) {
+            throw new IndexOutOfBoundsException("start");
+        }
+        if(count < 0 || str.length() != length + count) {
+            throw new IllegalArgumentException("count");
+        }
+        text = str;
+        if(count == 0) {
+            return;
+        }
+        
+        ensureCapacity(length + count);
+        int tail = length - start;
+        System.arraycopy(advance, start, advance, start+count, tail);
+        System.arraycopy(kerning, start, kerning, start+count, tail);
+        System.arraycopy(extent,  start, extent,  start+count, tail);
+        length += count;
+        
+        TTFFontRenderer.Glyph lastGlyph = (start > 0) ? font.getGlyph(str.charAt(start-1)) : null;
+        for(int i=start,end=start+count ; i<end ; i++) {
+            lastGlyph = setGlyph(i, lastGlyph, font.getGlyph(str.charAt(i)));
+        }
+        if(start + count < length) {
+            updateKerning(str, start + count);
+        }
+        invalidate(start);
+    }
+    
+    /**
+     * Updates the index after characters have been removed from the text.
+     * 
+     * @param str the text after the delete
+     * @param start the index of the first deleted character
+     * @param count the number of deleted characters
+     */
+    public void delete(CharSequence str, int start, int count) {
+        if(start < 0 || count < 0 || start + count > length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if(str.length() != length - count) {
+            throw new IllegalArgumentException("count");
+        }
+        text = str;
+        if(count == 0) {
+            return;
+        }
+        
+        int tail = length - start - count;
+        System.arraycopy(advance, start+count, advance, start, tail);
+        System.arraycopy(kerning, start+count, kerning, start, tail);
+        System.arraycopy(extent,  start+count, extent,  start, tail);
+        length -= count;
+        
+        if(start < length) {
+            updateKerning(str, start);
+        }
+        invalidate(start);
+    }
+    
+    /**
+     * Computes the width of the specified text range.
+     * 
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @return the width in pixels
+     * @see TTFFontRenderer#computeTextWidth(java.lang.CharSequence, int, int) 
+     */
+    public int computeTextWidth(int start, int end) {
+        checkRange(start, end);
+        if(start >= end) {
+            return 0;
+        }
+        if(font.getFixedAdvance() > 0) {
+            return font.computeTextWidth(text, start, end);
+        }
+        validate(end);
+        return endPos[end-1] - getLeft(start);
+    }
+    
+    /**
+     * Computes how many glyphs fit into the given width.
+     * 
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @param availWidth the available width
+     * @return the number of glyphs which fit
+     * @see TTFFontRenderer#computeVisibleGlpyhs(java.lang.CharSequence, int, int, int) 
+     */
+    public int computeVisibleGlpyhs(int start, int end, int availWidth) {
+        checkRange(start, end);
+        if(start >= end) {
+            return 0;
+        }
+        if(font.getFixedAdvance() > 0) {
+            return font.computeVisibleGlpyhs(text, start, end, availWidth);
+        }
+        validate(end);
+        
+        final int limit = getLeft(start) + availWidth;
+        final int[] right = maxRight;
+        if(start > 0 && right[start-1] > limit) {
+            // a glyph before the range extends past the limit - can't use
+            // the prefix maximum, do a linear scan
+            final boolean proportional = font.proportional;
+            for(int i=start ; i<end ; i++) {
+                int r = proportional ? endPos[i] : getLeft(i) + extent[i];
+                if(r > limit) {
+                    return i - start;
+                }
+            }
+            return end - start;
+        }
+        
+        int lo = start;
+        int hi = end;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(right[mid] > limit) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo - start;
+    }
+    
+    /**
+     * Returns the index of the character at the given X position.
+     * 
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @param x the X position relative to the start of the range
+     * @return the character index or end if x is past the end of the range
+     */
+    public int getCharIndexAt(int start, int end, int x) {
+        checkRange(start, end);
+        if(start >= end || x < 0) {
+            return start;
+        }
+        if(font.getFixedAdvance() > 0) {
+            return font.getCharIndexAt(text, start, end, x);
+        }
+        validate(end);
+        return findEnd(start, end, getLeft(start) + x);
+    }
+    
+    /**
+     * Returns the cursor position which is closest to the given X position.
+     * 
+     * @param start the start index (inclusive)
+     * @param end the end index (exclusive)
+     * @param x the X position relative to the start of the range
+     * @return the cursor position in the range [start, end]
+     */
+    public int getCursorIndexAt(int start, int end, int x) {
+        int idx = getCharIndexAt(start, end, x);
+        if(idx < end && x >= 0 && font.getFixedAdvance() > 0) {
+            int left = font.computeTextWidth(text, start, idx);
+            int right = font.computeTextWidth(text, start, idx + 1);
+            if(2*x >= left + right) {
+                idx++;
+            }
+        } else if(idx < end && x >= 0) {
+            int left = getLeft(idx);
+            if(2*(getLeft(start) + x) >= left + endPos[idx]) {
+                idx++;
+            }
+        }
+        return idx;
+    }
+    
+    private int findEnd(int lo, int hi, int pos) {
+        final int[] ends = endPos;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(ends[mid] > pos) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+    
+    private int getLeft(int idx) {
+        return endPos[idx] - advance[idx];
+    }
+    
+    private TTFFontRenderer.Glyph setGlyph(int idx, TTFFontRenderer.Glyph lastGlyph, TTFFontRenderer.Glyph g) {
+        if(g == null) {
+            advance[idx] = 0;
+            kerning[idx] = 0;
+            extent[idx] = 0;
+            return lastGlyph;
+        }
+        advance[idx] = g.xadvance;
+        kerning[idx] = (short)((lastGlyph != null) ? lastGlyph.getKerning(g.glyphIndex) : 0);
+        extent[idx] = (short)g.getRight();
+        return g;
+    }
+    
+    private void updateKerning(CharSequence str, int idx) {
+        TTFFontRenderer.Glyph g = font.getGlyph(str.charAt(idx));
+        TTFFontRenderer.Glyph lastGlyph = null;
+        for(int i=idx ; i-- > 0 && lastGlyph == null ;) {
+            lastGlyph = font.getGlyph(str.charAt(i));
+        }
+        setGlyph(idx, lastGlyph, g);
+    }
+    
+    private void invalidate(int idx) {
+        if(validLength > idx) {
+            validLength = idx;
+        }
+    }
+    
+    private void validate(int end) {
+        if(validLength >= end) {
+            return;
+        }
+        if(endPos == null || endPos.length < advance.length) {
+            int[] newEndPos = new int[advance.length];
+            int[] newMaxRight = new int[advance.length];
+            if(endPos != null) {
+                System.arraycopy(endPos, 0, newEndPos, 0, validLength);
+                System.arraycopy(maxRight, 0, newMaxRight, 0, validLength);
+            }
+            endPos = newEndPos;
+            maxRight = newMaxRight;
+        }
+        
+        final boolean proportional = font.proportional;
+        int idx = validLength;
+        int pos = (idx > 0) ? endPos[idx-1] : 0;
+        int max = (idx > 0) ? maxRight[idx-1] : Integer.MIN_VALUE;
+        for(; idx<length ; idx++) {
+            int left = pos + kerning[idx];
+            pos = left + advance[idx];
+            int right = proportional ? pos : left + extent[idx];
+            if(right > max) {
+                max = right;
+            }
+            endPos[idx] = pos;
+            maxRight[idx] = max;
+        }
+        validLength = length;
+    }
+    
+    private void ensureCapacity(int size) {
+        if(advance.length < size) {
+            int newSize = Math.max(size, advance.length * 3 / 2);
+            advance = copyOf(advance, newSize);
+            kerning = copyOf(kerning, newSize);
+            extent = copyOf(extent, newSize);
+        }
+    }
+    
+    private void checkRange(int start, int end) {
+        if(start < 0 || end > length) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+    
+    private static short[] copyOf(short[] src, int newSize) {
+        short[] tmp = new short[newSize];
+        System.arraycopy(src, 0, tmp, 0, src.length);
+        return tmp;
+    }
+}
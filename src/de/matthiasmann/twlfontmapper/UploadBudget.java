@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+/**
+ * The glyph upload budget of one frame. A font renderer has it's own budget,
+ * the renderers of a font mapper share the budget of the font mapper so
+ * that the limit applies to the frame and not to each font.
+ * 
+ * <p>It must only be used from the render thread.</p>
+ * 
+ * @author Matthias Mann
+ * @see TTFFontRenderer#setUploadBudget(int, long) 
+ * @see TWLFontMapper#setUploadBudget(int, long) 
+ */
+final class UploadBudget {
+    
+    int maxGlyphs;
+    long maxNanos;
+    private int frameGlyphs;
+    private long frameNanos;
+
+    void setLimits(int maxGlyphs, long maxNanos) {
+        if(maxGlyphs < 0) {
+            throw new IllegalArgumentException("maxGlyphs");
+        }
+        if(maxNanos < 0) {
+            throw new IllegalArgumentException("maxNanos");
+        }
+        this.maxGlyphs = maxGlyphs;
+        this.maxNanos = maxNanos;
+    }
+    
+    void nextFrame() {
+        frameGlyphs = 0;
+        frameNanos = 0;
+    }
+    
+    boolean isExhausted() {
+        return (maxGlyphs > 0 && frameGlyphs >= maxGlyphs) ||
+                (maxNanos > 0 && frameNanos >= maxNanos);
+    }
+    
+    void add(long nanos) {
+        frameGlyphs++;
+        frameNanos += nanos;
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2008-2012, Matthias Mann
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of Matthias Mann nor the names of its contributors may
+ *       be used to endorse or promote products derived from this software
+ *       without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.matthiasmann.twlfontmapper;
+
+/**
+ * Word wraps a text to a given width.
+ * 
+ * <p>The glyph metrics and the break opportunities (after white space,
+ * after a hyphen and around CJK ideographs) are computed once in
+ * {@link #setText(java.lang.CharSequence) }. Changing the width only
+ * computes the new line breaks using binary searches - the results for
+ * the last few widths are cached.</p>
+ * 
+ * <p>The text must not be modified while it is used by this object
+ * without calling {@link #setText(java.lang.CharSequence) } again.</p>
+ * 
+ * @author Matthias Mann
+ */
+public class WrappedText {
+    
+    private static final int NUM_CACHED_WIDTHS = 4;
+    
+    private final TextWidthIndex index;
+    private final Lines[] cache;
+    
+    private CharSequence text;
+    private int[] breaks;
+    private int numBreaks;
+    private Lines lines;
+
+    public WrappedText(TTFFontRenderer font) {
+        this.index = new TextWidthIndex(font);
+        this.cache = new Lines[NUM_CACHED_WIDTHS];
+        this.breaks = new int[16];
+    }
+
+    public TTFFontRenderer getFont() {
+        return index.getFont();
+    }
+    
+    public CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * Sets the text and computes the break opportunities.
+     * 
+     * @param text the text
+     */
+    public void setText(CharSequence text) {
+        if(text == null) {
+            throw new NullPointerException("text");
+        }
+        this.text = text;
+        this.index.setText(text);
+        this.lines = null;
+        for(int i=0 ; i<cache.length ; i++) {
+            cache[i] = null;
+        }
+        computeBreaks();
+    }
+    
+    /**
+     * Computes the line breaks for the given width. Does nothing if the
+     * width is the same as the last call.
+     * 
+     * @param width the maximum line width
+     */
+    public void setWidth(int width) {
+        if(text == null) {
+            throw new IllegalStateException("no text set");
+        }
+        if(lines != null && lines.width == width) {
+            return;
+        }
+        
+        Lines l = null;
+        int slot = cache.length - 1;
+        for(int i=0 ; i<cache.length ; i++) {
+            if(cache[i] == null || cache[i].width == width) {
+                l = cache[i];
+                slot = i;
+                break;
+            }
+        }
+        if(l == null) {
+            l = (cache[slot] != null) ? cache[slot] : new Lines();
+            computeLines(l, width);
+        }
+        // move to front
+        System.arraycopy(cache, 0, cache, 1, slot);
+        cache[0] = l;
+        lines = l;
+    }
+    
+    public int getWidth() {
+        return getLines().width;
+    }
+    
+    public int getNumLines() {
+        return getLines().count;
+    }
+    
+    public int getHeight() {
+        return getLines().count * index.getFont().lineHeight;
+    }
+    
+    /**
+     * Returns the start index of the line in the text
+     * @param line the line index
+     * @return the start index
+     */
+    public int getLineStart(int line) {
+        return getLines().start[checkLine(line)];
+    }
+    
+    /**
+     * Returns the end index of the line in the text excluding trailing
+     * white space and the line feed.
+     * @param line the line index
+     * @return the end index
+     */
+    public int getLineEnd(int line) {
+        return getLines().end[checkLine(line)];
+    }
+    
+    public int getLineWidth(int line) {
+        return getLines().lineWidth[checkLine(line)];
+    }
+    
+    /**
+     * Returns the width of the widest line
+     * @return the width of the widest line
+     */
+    public int getMaxLineWidth() {
+        Lines l = getLines();
+        int max = 0;
+        for(int i=0 ; i<l.count ; i++) {
+            max = Math.max(max, l.lineWidth[i]);
+        }
+        return max;
+    }
+    
+    /**
+     * Returns the line which contains the given character index
+     * @param charIndex the character index
+     * @return the line index
+     */
+    public int getLineAt(int charIndex) {
+        Lines l = getLines();
+        int lo = 0;
+        int hi = l.count;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(l.start[mid] > charIndex) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return Math.max(0, lo - 1);
+    }
+    
+    private Lines getLines() {
+        if(lines == null) {
+            throw new IllegalStateException("no width set");
+        }
+        return lines;
+    }
+    
+    private int checkLine(int line) {
+        if(line < 0 || line >= getLines().count) {
+            throw new IndexOutOfBoundsException("line");
+        }
+        return line;
+    }
+    
+    private void computeBreaks() {
+        final CharSequence str = text;
+        final int len = str.length();
+        numBreaks = 0;
+        
+        char prev = 0;
+        for(int i=0 ; i<len ; i++) {
+            char ch = str.charAt(i);
+            if(ch == '\n') {
+                addBreak(i+1, true);
+            } else if(isWhitespace(ch)) {
+                if(i+1 < len && !isWhitespace(str.charAt(i+1))) {
+                    addBreak(i+1, false);
+                }
+            } else if(isCJK(ch)) {
+                if(i > 0 && !isWhitespace(prev) && !isCJK(prev) && prev != '\n') {
+                    addBreak(i, false);
+                }
+                if(i+1 < len && !isClosingPunctuation(str.charAt(i+1))) {
+                    addBreak(i+1, false);
+                }
+            } else if(isHyphen(ch) && Character.isLetterOrDigit(prev)) {
+                if(i+1 < len && Character.isLetterOrDigit(str.charAt(i+1))) {
+                    addBreak(i+1, false);
+                }
+            }
+            prev = ch;
+        }
+    }
+    
+    private void addBreak(int pos, boolean forced) {
+        if(numBreaks == breaks.length) {
+            int[] tmp = new int[numBreaks * 2];
+            System.arraycopy(breaks, 0, tmp, 0, numBreaks);
+            breaks = tmp;
+        }
+        breaks[numBreaks++] = (pos << 1) | (forced ? 1 : 0);
+    }
+    
+    /**
+     * Returns the index of the first break which is &gt; pos
+     */
+    private int findBreak(int pos) {
+        final int key = (pos << 1) | 1;
+        int lo = 0;
+        int hi = numBreaks;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(breaks[mid] > key) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+    
+    private void computeLines(Lines l, int width) {
+        final CharSequence str = text;
+        final int len = str.length();
+        l.width = width;
+        l.count = 0;
+        
+        int start = 0;
+        int nextBreak = 0;
+        while(start < len) {
+            // find the end of the paragraph
+            while(nextBreak < numBreaks && ((breaks[nextBreak] >> 1) <= start ||
+                    (breaks[nextBreak] & 1) == 0)) {
+                nextBreak++;
+            }
+            int paraEnd = (nextBreak < numBreaks) ? (breaks[nextBreak] >> 1) - 1 : len;
+            
+            int lineEnd = start + index.computeVisibleGlpyhs(start, paraEnd, width);
+            int next;
+            if(lineEnd >= paraEnd) {
+                lineEnd = paraEnd;
+                next = paraEnd + 1;
+            } else {
+                next = lineEnd;
+                while(next < paraEnd && isWhitespace(str.charAt(next))) {
+                    next++;
+                }
+                if(next == lineEnd) {
+                    // break at the last opportunity inside the fitting part
+                    int b = findBreak(lineEnd) - 1;
+                    if(b >= 0 && (breaks[b] >> 1) > start) {
+                        next = breaks[b] >> 1;
+                    } else {
+                        // no break opportunity - break inside the word
+                        next = Math.max(lineEnd, start + 1);
+                    }
+                    lineEnd = next;
+                }
+                if(next == paraEnd) {
+                    next++;
+                }
+            }
+            while(lineEnd > start && isWhitespace(str.charAt(lineEnd-1))) {
+                lineEnd--;
+            }
+            
+            l.add(start, lineEnd, index.computeTextWidth(start, lineEnd));
+            start = next;
+        }
+    }
+    
+    private static boolean isWhitespace(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\u3000';
+    }
+    
+    private static boolean isHyphen(char ch) {
+        return ch == '-' || ch == '\u2010' || ch == '\u00AD';
+    }
+    
+    private static boolean isClosingPunctuation(char ch) {
+        switch(ch) {
+            case '\u3001': case '\u3002': case '\u300D': case '\u300F':
+            case '\uFF01': case '\uFF09': case '\uFF0C': case '\uFF0E':
+            case '\uFF1A': case '\uFF1B': case '\uFF1F':
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    static boolean isCJK(char ch) {
+        return (ch >= '\u2E80' && ch <= '\u9FFF') ||
+                (ch >= '\uAC00' && ch <= '\uD7AF') ||
+                (ch >= '\uF900' && ch <= '\uFAFF') ||
+                (ch >= '\uFF00' && ch <= '\uFFEF');
+    }
+    
+    static final class Lines {
+        int width;
+        int count;
+        int[] start;
+        int[] end;
+        int[] lineWidth;
+
+        Lines() {
+            start = new int[8];
+            end = new int[8];
+            lineWidth = new int[8];
+        }
+        
+        void add(int lineStart, int lineEnd, int width) {
+            if(count == start.length) {
+                start = copyOf(start, count * 2);
+                end = copyOf(end, count * 2);
+                lineWidth = copyOf(lineWidth, count * 2);
+            }
+            start[count] = lineStart;
+            end[count] = lineEnd;
+            lineWidth[count] = width;
+            count++;
+        }
+        
+        private static int[] copyOf(int[] src, int newSize) {
+            int[] tmp = new int[newSize];
+            System.arraycopy(src, 0, tmp, 0, src.length);
+            return tmp;
+        }
+    }
+}